@@ -0,0 +1,92 @@
+import bench.Drawing;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+/**
+ * Default-package side of the benchmarks, see bench.Drawing. Clones are spread uniformly
+ * at a fixed density, about one per 2000 square pixels, so a 1000x700 viewport sees a few
+ * hundred shapes at 1:1 whatever the scene size, and only zoom or index quality change
+ * the work per frame.
+ */
+public class DrawingDriver implements Drawing {
+    static final String PROTOTYPE = "bench";
+    static final int RADIUS = 12;
+
+    private final PrototypeRegistry registry = new PrototypeRegistry();
+    private final CircleShape circle;
+    private final BufferedImage circleImage = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+    private final Graphics2D circleGraphics = circleImage.createGraphics();
+    private ShapeManager manager;
+    private PlacementEngine placement;
+    private Rectangle middle;
+    private CanvasPanel canvas;
+    private BufferedImage frame;
+    private int[] probeX = new int[4096], probeY = new int[4096];
+
+    public DrawingDriver() {
+        registry.register(PROTOTYPE, new CirclePrototype(PROTOTYPE, RADIUS, new Color(120, 200, 255)));
+        circle = registry.getPrototypeForEdit(PROTOTYPE).spawnAt(32, 32);
+        circleGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    }
+
+    /** The world area holding n shapes at the benchmark density, 4:3. */
+    static Rectangle world(int n) {
+        int w = (int) Math.sqrt(n * 2000.0 * 4 / 3);
+        return new Rectangle(0, 0, Math.max(w, 1000), Math.max(w * 3 / 4, 700));
+    }
+
+    @Override public void buildScene(String store, int n) {
+        switch (store) {
+            case "object": manager = new ShapeManager(new ObjectShapeStore()); break;
+            case "columnar": manager = new ShapeManager(new ColumnarShapeStore()); break;
+            default: throw new IllegalArgumentException("Unknown store: " + store);
+        }
+        Rectangle world = world(n);
+        manager.addShapes(registry.spawnBatch(PROTOTYPE, n, world, 42));
+        placement = new PlacementEngine(manager, 4);
+        middle = new Rectangle((int) world.getCenterX() - 500, (int) world.getCenterY() - 350, 1000, 700);
+        SplittableRandom rnd = new SplittableRandom(7);
+        for (int i = 0; i < probeX.length; i++) {
+            probeX[i] = rnd.nextInt(world.width);
+            probeY[i] = rnd.nextInt(world.height);
+        }
+        canvas = null;
+    }
+
+    @Override public void setViewport(int w, int h, boolean fit) {
+        canvas = new CanvasPanel(manager, null);
+        canvas.setSize(w, h);
+        if (fit) canvas.zoomToFit();
+        frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override public Object paintCanvas() {
+        Graphics2D g = frame.createGraphics();
+        canvas.paintComponent(g);
+        g.dispose();
+        return frame;
+    }
+
+    @Override public Object drawCircle(boolean selected) {
+        circle.draw(circleGraphics, selected);
+        return circleImage;
+    }
+
+    @Override public Object pick(int i) { return manager.pickAt(probeX[i], probeY[i]); }
+
+    @Override public Object spawn() { return registry.spawnShape(PROTOTYPE, middle); }
+
+    @Override public Object spawnWithoutOverlap() { return registry.spawnShape(PROTOTYPE, middle, placement); }
+
+    @Override public int addShape(int i) {
+        manager.addShape(registry.getPrototypeForEdit(PROTOTYPE).spawnAt(probeX[i], probeY[i]));
+        return manager.size();
+    }
+
+    @Override public int probes() { return probeX.length; }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full CanvasPanel repaints of a 1000x700 canvas into a headless BufferedImage: at 1:1,
+ * where the grid index picks the few hundred shapes in view, and zoomed to fit, where
+ * every shape is drawn through the level-of-detail path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class CanvasPaintBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int shapes;
+
+    @Param({"object", "columnar"})
+    public String store;
+
+    @Param({"actual", "fit"})
+    public String view;
+
+    private Drawing drawing;
+
+    @Setup
+    public void setUp() {
+        drawing = Drawing.create();
+        drawing.buildScene(store, shapes);
+        drawing.setViewport(1000, 700, view.equals("fit"));
+    }
+
+    @Benchmark
+    public Object paint() {
+        return drawing.paintCanvas();
+    }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+/**
+ * The operations the benchmarks measure. The drawing app lives in the default package,
+ * which code in a named package cannot reference and JMH cannot generate into, so the
+ * benchmarks drive it through this interface, implemented by the default-package
+ * DrawingDriver and loaded reflectively once per trial.
+ */
+public interface Drawing {
+    /** Replaces the scene with n clones in an "object" or "columnar" store; see DrawingDriver.world. */
+    void buildScene(String store, int n);
+
+    /** Sizes the canvas to w x h at 1:1, or zoomed to fit the whole scene. */
+    void setViewport(int w, int h, boolean fit);
+
+    /** Repaints the whole canvas into an offscreen image and returns it. */
+    Object paintCanvas();
+
+    /** Draws one CircleShape into an offscreen image and returns it. */
+    Object drawCircle(boolean selected);
+
+    /** Topmost shape at the probe point i, or null. */
+    Object pick(int i);
+
+    /** A clone spawned around the middle of the scene. */
+    Object spawn();
+
+    /** A clone spawned around the middle of the scene where it overlaps nothing. */
+    Object spawnWithoutOverlap();
+
+    /** Adds a clone at probe point i; returns the new scene size. */
+    int addShape(int i);
+
+    /** Number of probe points; a power of two. */
+    int probes();
+
+    static Drawing create() {
+        try {
+            return (Drawing) Class.forName("DrawingDriver").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("DrawingDriver is not on the class path", e);
+        }
+    }
+}
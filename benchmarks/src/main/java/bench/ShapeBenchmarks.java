@@ -0,0 +1,83 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-operation costs of the drawing core: drawing one circle, picking, spawning a clone
+ * from the registry and adding it to a scene of the given size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class ShapeBenchmarks {
+
+    /** One circle, independent of scene size. */
+    @State(Scope.Thread)
+    public static class Circle {
+        @Param({"false", "true"})
+        public boolean selected;
+
+        Drawing drawing;
+
+        @Setup
+        public void setUp() {
+            drawing = Drawing.create();
+        }
+    }
+
+    /** A scene of the given size with probe points spread over it. */
+    @State(Scope.Thread)
+    public static class Scene {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int shapes;
+
+        @Param({"object", "columnar"})
+        public String store;
+
+        Drawing drawing;
+        int mask, next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            drawing = Drawing.create();
+            mask = drawing.probes() - 1;
+        }
+
+        /** Rebuilt every iteration so addShape measures a scene close to its nominal size. */
+        @Setup(Level.Iteration)
+        public void fresh() {
+            drawing.buildScene(store, shapes);
+        }
+
+        int probe() { return next = (next + 1) & mask; }
+    }
+
+    @Benchmark
+    public Object circleShapeDraw(Circle c) {
+        return c.drawing.drawCircle(c.selected);
+    }
+
+    @Benchmark
+    public Object pickAt(Scene s) {
+        return s.drawing.pick(s.probe());
+    }
+
+    @Benchmark
+    public Object spawnShape(Scene s) {
+        return s.drawing.spawn();
+    }
+
+    @Benchmark
+    public Object spawnShapeWithoutOverlap(Scene s) {
+        return s.drawing.spawnWithoutOverlap();
+    }
+
+    @Benchmark
+    public int addShape(Scene s) {
+        return s.drawing.addShape(s.probe());
+    }
+}
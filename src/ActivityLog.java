@@ -0,0 +1,181 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded activity log. Producers on any thread append to a ring buffer that keeps the
+ * last capacity entries; an attached text area is brought up to date by a Swing timer
+ * that appends everything logged since the previous tick in one edit, so bursts cost
+ * one document update per tick and the document never grows past capacity lines.
+ */
+class ActivityLog {
+    private final String[] ring;
+    private long seq; // entries ever appended; entry n lives at ring[n % capacity]
+    private FileSink fileSink;
+
+    ActivityLog(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.ring = new String[capacity];
+    }
+
+    void append(String message) {
+        FileSink sink;
+        synchronized (this) {
+            ring[(int) (seq % ring.length)] = message;
+            seq++;
+            sink = fileSink;
+        }
+        if (sink != null) sink.offer(message);
+    }
+
+    int capacity() { return ring.length; }
+
+    /** Retained entries, oldest first. */
+    synchronized List<String> snapshot() {
+        return entriesSince(0);
+    }
+
+    /** Also writes every entry to a rolling file on a background thread. */
+    synchronized void setFileSink(FileSink sink) {
+        this.fileSink = sink;
+    }
+
+    /**
+     * Shows the log in the text area, flushing new entries every flushMillis. Returns the
+     * timer so the caller can stop it.
+     */
+    Timer attach(JTextArea area, int flushMillis) {
+        long[] shown = {0};
+        Timer timer = new Timer(flushMillis, e -> {
+            List<String> fresh;
+            long upTo;
+            synchronized (this) {
+                if (seq == shown[0]) return;
+                fresh = entriesSince(shown[0]);
+                upTo = seq;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String m : fresh) sb.append(m).append('\n');
+            if (upTo - shown[0] > ring.length) area.setText(sb.toString()); // older lines were overwritten
+            else area.append(sb.toString());
+            shown[0] = upTo;
+            trim(area.getDocument());
+            area.setCaretPosition(area.getDocument().getLength());
+        });
+        timer.setCoalesce(true);
+        timer.start();
+        return timer;
+    }
+
+    private List<String> entriesSince(long from) {
+        long start = Math.max(from, seq - ring.length);
+        List<String> out = new ArrayList<>((int) (seq - start));
+        for (long n = start; n < seq; n++) out.add(ring[(int) (n % ring.length)]);
+        return out;
+    }
+
+    /** Drops the oldest lines so the document holds at most capacity entries. */
+    private void trim(Document doc) {
+        Element root = doc.getDefaultRootElement();
+        int excess = root.getElementCount() - 1 - ring.length; // last element is the empty line after '\n'
+        if (excess <= 0) return;
+        try {
+            doc.remove(0, root.getElement(excess - 1).getEndOffset());
+        } catch (BadLocationException ignored) {
+            // offsets come from the document itself
+        }
+    }
+
+    /**
+     * Appends log lines to a file from a daemon thread. When the file exceeds maxBytes it
+     * is renamed to name.1 (older backups shift up, keeping at most backups) and a fresh
+     * file is started. If the writer falls behind by more than the queue size, lines are
+     * dropped and counted rather than blocking the producer.
+     */
+    static class FileSink {
+        private final Path file;
+        private final long maxBytes;
+        private final int backups;
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(8192);
+        private final AtomicLong dropped = new AtomicLong();
+        private long written;
+
+        FileSink(Path file, long maxBytes, int backups) {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.backups = backups;
+            Thread t = new Thread(this::run, "activity-log-writer");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        long getDropped() { return dropped.get(); }
+
+        void offer(String line) {
+            if (!queue.offer(line)) dropped.incrementAndGet();
+        }
+
+        private void run() {
+            BufferedWriter out = null;
+            try {
+                while (true) {
+                    String line = queue.take();
+                    if (out == null) {
+                        out = open();
+                    }
+                    do {
+                        byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                        if (written > 0 && written + bytes.length > maxBytes) {
+                            out.close();
+                            roll();
+                            out = open();
+                        }
+                        out.write(line);
+                        out.newLine();
+                        written += bytes.length;
+                    } while ((line = queue.poll()) != null);
+                    out.flush(); // once per drained batch
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Activity log file disabled: " + e.getMessage());
+            } finally {
+                if (out != null) {
+                    try { out.close(); } catch (IOException ignored) { }
+                }
+            }
+        }
+
+        private BufferedWriter open() throws IOException {
+            written = Files.exists(file) ? Files.size(file) : 0;
+            return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        private void roll() throws IOException {
+            for (int i = backups - 1; i >= 1; i--) {
+                Path older = backup(i);
+                if (Files.exists(older)) Files.move(older, backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (backups > 0) Files.move(file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+            else Files.delete(file);
+        }
+
+        private Path backup(int n) {
+            return file.resolveSibling(file.getFileName() + "." + n);
+        }
+    }
+}
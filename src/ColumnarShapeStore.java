@@ -0,0 +1,232 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structure-of-arrays backend for very large scenes. Position and radius live in
+ * parallel int columns and each row refers to its shared ShapeStyle through a style id
+ * into a side table, so a shape costs 16 bytes instead of an object graph. get(id)
+ * hands out short-lived handles that read and write the columns.
+ *
+ * The side table counts the rows using each style and lets go of a style when its last
+ * row is recolored, relabeled or removed; its id is reused by the next new style. So the
+ * table only pins styles still in use, and ShapeStyle's weak interning can drop the rest.
+ */
+class ColumnarShapeStore implements ShapeStore {
+    private int[] xs, ys, radii, styleIds;
+    private int size;
+
+    private final List<ShapeStyle> styles = new ArrayList<>(); // null where an id is free
+    private final Map<ShapeStyle, Integer> styleIndex = new HashMap<>();
+    private int[] styleRefs = new int[16]; // rows per style id
+    private int[] freeStyleIds = new int[16];
+    private int freeStyles;
+
+    private ShapeChangeListener listener;
+
+    ColumnarShapeStore() {
+        this(1024);
+    }
+
+    ColumnarShapeStore(int initialCapacity) {
+        int cap = Math.max(16, initialCapacity);
+        xs = new int[cap];
+        ys = new int[cap];
+        radii = new int[cap];
+        styleIds = new int[cap];
+    }
+
+    @Override public int size() { return size; }
+
+    @Override public CircleShape get(int id) {
+        if (id < 0 || id >= size) throw new IndexOutOfBoundsException("Shape id " + id + ", size " + size);
+        return new Handle(id);
+    }
+
+    @Override public int add(CircleShape s) {
+        return add(s.getStyle(), s.getX(), s.getY(), s.getRadius());
+    }
+
+    @Override public int addBatch(ShapeBatch b) {
+        int first = size, n = b.size();
+        if (n == 0) return first;
+        ensureCapacity(first + n);
+        System.arraycopy(b.xs, 0, xs, first, n);
+        System.arraycopy(b.ys, 0, ys, first, n);
+        Arrays.fill(radii, first, first + n, b.radius);
+        int styleId = intern(b.style);
+        Arrays.fill(styleIds, first, first + n, styleId);
+        styleRefs[styleId] += n;
+        size += n;
+        return first;
+    }
+
+    @Override public int add(ShapeStyle style, int x, int y, int radius) {
+        return addRaw(x, y, radius, intern(style));
+    }
+
+    /** Appends a row with a style id from internStyle; used by SceneFile when loading. */
+    int addRaw(int x, int y, int radius, int styleId) {
+        if (size == xs.length) grow();
+        int id = size++;
+        xs[id] = x;
+        ys[id] = y;
+        radii[id] = radius;
+        styleIds[id] = styleId;
+        styleRefs[styleId]++;
+        return id;
+    }
+
+    /** A style id for addRaw; the style is held once a row uses it. */
+    int internStyle(ShapeStyle style) { return intern(style); }
+
+    void ensureCapacity(int cap) {
+        if (cap <= xs.length) return;
+        cap = Math.max(cap, xs.length + (xs.length >> 1));
+        xs = Arrays.copyOf(xs, cap);
+        ys = Arrays.copyOf(ys, cap);
+        radii = Arrays.copyOf(radii, cap);
+        styleIds = Arrays.copyOf(styleIds, cap);
+    }
+
+    @Override public void clear() {
+        size = 0;
+        styles.clear();
+        styleIndex.clear();
+        freeStyles = 0;
+    }
+
+    @Override public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) throw new IndexOutOfBoundsException("Truncate to " + newSize + ", size " + size);
+        for (int id = newSize; id < size; id++) release(styleIds[id]);
+        size = newSize;
+    }
+
+    @Override public int getX(int id) { return xs[id]; }
+    @Override public int getY(int id) { return ys[id]; }
+    @Override public int getRadius(int id) { return radii[id]; }
+    @Override public ShapeStyle getStyle(int id) { return styles.get(styleIds[id]); }
+
+    @Override public Rectangle getPaintBounds(int id) {
+        return CircleShape.paintBounds(xs[id], ys[id], radii[id], styles.get(styleIds[id]).labelWidth());
+    }
+
+    @Override public boolean contains(int id, int px, int py) {
+        int dx = px - xs[id];
+        int dy = py - ys[id];
+        int r = radii[id];
+        return dx*dx + dy*dy <= r*r;
+    }
+
+    @Override public void setChangeListener(ShapeChangeListener l) { this.listener = l; }
+
+    /** Distinct styles held in the side table. */
+    int styleCount() { return styles.size() - freeStyles; }
+
+    /** Approximate heap held by the columns and side tables. */
+    long footprintBytes() {
+        return 4L * 4 * xs.length + 96L * styles.size();
+    }
+
+    private int intern(ShapeStyle style) {
+        Integer idx = styleIndex.get(style);
+        if (idx != null) return idx;
+        int i;
+        if (freeStyles > 0) {
+            i = freeStyleIds[--freeStyles];
+            styles.set(i, style);
+        } else {
+            i = styles.size();
+            styles.add(style);
+            if (i == styleRefs.length) styleRefs = Arrays.copyOf(styleRefs, i * 2);
+        }
+        styleRefs[i] = 0;
+        styleIndex.put(style, i);
+        return i;
+    }
+
+    /** Points row id at style, letting go of its old style if no other row uses it. */
+    private void setStyle(int id, ShapeStyle style) {
+        int old = styleIds[id], styleId = intern(style);
+        if (styleId == old) return;
+        styleRefs[styleId]++;
+        styleIds[id] = styleId;
+        release(old);
+    }
+
+    private void release(int styleId) {
+        if (--styleRefs[styleId] > 0) return;
+        styleIndex.remove(styles.get(styleId));
+        styles.set(styleId, null);
+        if (freeStyles == freeStyleIds.length) freeStyleIds = Arrays.copyOf(freeStyleIds, freeStyles * 2);
+        freeStyleIds[freeStyles++] = styleId;
+    }
+
+    private void grow() {
+        ensureCapacity(xs.length + (xs.length >> 1));
+    }
+
+    /**
+     * View of one row. Handles are cheap and disposable; two handles for the same id
+     * are equal.
+     */
+    private final class Handle extends CircleShape {
+        Handle(int id) {
+            super((ShapeStyle) null, 0, 0, 0);
+            attach(id, listener);
+        }
+
+        @Override String getLabel() { return getStyle().label; }
+        @Override int getRadius() { return radii[getId()]; }
+        @Override Color getColor() { return getStyle().fill; }
+        @Override ShapeStyle getStyle() { return styles.get(styleIds[getId()]); }
+        @Override int getX() { return xs[getId()]; }
+        @Override int getY() { return ys[getId()]; }
+        @Override boolean contains(int px, int py) { return ColumnarShapeStore.this.contains(getId(), px, py); }
+        @Override Rectangle getPaintBounds() { return ColumnarShapeStore.this.getPaintBounds(getId()); }
+
+        @Override void draw(Graphics2D g, boolean selected) {
+            int id = getId();
+            paint(g, xs[id], ys[id], radii[id], getStyle(), selected);
+        }
+
+        @Override void setRadius(int r) {
+            Rectangle old = getPaintBounds();
+            ShapeEdit edit = ShapeEdit.resize(radii[getId()], r);
+            radii[getId()] = r;
+            fireChanged(old, edit);
+        }
+
+        @Override void setColor(Color c) {
+            Rectangle old = getPaintBounds();
+            ShapeEdit edit = ShapeEdit.recolor(getColor(), c);
+            setStyle(getId(), getStyle().withColor(c));
+            fireChanged(old, edit);
+        }
+
+        @Override void setLabel(String s) {
+            Rectangle old = getPaintBounds();
+            ShapeEdit edit = ShapeEdit.relabel(getLabel(), s);
+            setStyle(getId(), getStyle().withLabel(s));
+            fireChanged(old, edit);
+        }
+
+        @Override void moveBy(int dx, int dy) {
+            Rectangle old = getPaintBounds();
+            xs[getId()] += dx;
+            ys[getId()] += dy;
+            fireChanged(old, ShapeEdit.move(dx, dy));
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Handle && ((Handle) o).getId() == getId() && ((Handle) o).owner() == ColumnarShapeStore.this;
+        }
+
+        @Override public int hashCode() { return getId(); }
+
+        private ColumnarShapeStore owner() { return ColumnarShapeStore.this; }
+    }
+}
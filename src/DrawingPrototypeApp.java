@@ -1,13 +1,34 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 abstract class ShapePrototype {
@@ -20,19 +41,22 @@ class CirclePrototype extends ShapePrototype {
     String name;
     int radius;
     Color color;
+    private final ShapeStyle style; // shared by every clone
 
     CirclePrototype(String name, int radius, Color color) {
         this.name = name;
         this.radius = radius;
         this.color = color;
+        this.style = ShapeStyle.of(color, name + " copy");
     }
 
     public CircleShape spawnAt(int x, int y) {
-        return new CircleShape(this.name + " copy", x, y, radius, color);
+        return new CircleShape(style, x, y, radius);
     }
 
     int getRadius() { return radius; }
     Color getColor() { return color; }
+    ShapeStyle getStyle() { return style; }
 
     @Override
     public String getName() {
@@ -41,17 +65,25 @@ class CirclePrototype extends ShapePrototype {
 }
 
 class CircleShape {
-    private String label;
+    /** Slack around the circle for the 4px selection stroke plus antialiasing. */
+    private static final int STROKE_PAD = 3;
+    private static volatile LabelFont labelFont = new LabelFont(new Font(Font.DIALOG, Font.PLAIN, 12), 0); // read by render threads too
+
+    private ShapeStyle style;
     private int x, y;
     private int radius;
-    private Color color;
+    private int id = -1;
+    private ShapeChangeListener changeListener;
 
     CircleShape(String label, int x, int y, int radius, Color color) {
-        this.label = label;
+        this(ShapeStyle.of(color, label), x, y, radius);
+    }
+
+    CircleShape(ShapeStyle style, int x, int y, int radius) {
+        this.style = style;
         this.x = x;
         this.y = y;
         this.radius = radius;
-        this.color = color;
     }
 
     boolean contains(int px, int py) {
@@ -60,57 +92,512 @@ class CircleShape {
         return dx*dx + dy*dy <= radius*radius;
     }
 
-    void setRadius(int r) { this.radius = r; }
-    void setColor(Color c) { this.color = c; }
-    void setLabel(String s) { this.label = s; }
+    void setRadius(int r) {
+        Rectangle old = getPaintBounds();
+        ShapeEdit edit = ShapeEdit.resize(radius, r);
+        this.radius = r;
+        fireChanged(old, edit);
+    }
+    // style edits switch this shape to another shared style; the prototype's is untouched
+    void setColor(Color c) {
+        Rectangle old = getPaintBounds();
+        ShapeEdit edit = ShapeEdit.recolor(style.fill, c);
+        this.style = style.withColor(c);
+        fireChanged(old, edit);
+    }
+    void setLabel(String s) {
+        Rectangle old = getPaintBounds();
+        ShapeEdit edit = ShapeEdit.relabel(style.label, s);
+        this.style = style.withLabel(s);
+        fireChanged(old, edit);
+    }
 
-    String getLabel() { return label; }
+    String getLabel() { return style.label; }
     int getRadius() { return radius; }
-    Color getColor() { return color; }
+    Color getColor() { return style.fill; }
+    ShapeStyle getStyle() { return style; }
     int getX() { return x; }
     int getY() { return y; }
+    int getId() { return id; }
+
+    /** Called by ShapeManager when the shape is placed; id doubles as z-order. */
+    void attach(int id, ShapeChangeListener l) {
+        this.id = id;
+        this.changeListener = l;
+    }
+
+    /**
+     * Area touched by draw(), covering the selection stroke and the label even when it
+     * is wider than the circle.
+     */
+    Rectangle getPaintBounds() {
+        return paintBounds(x, y, radius, style.labelWidth());
+    }
+
+    static Rectangle paintBounds(int x, int y, int radius, int labelWidth) {
+        FontMetrics fm = labelMetrics();
+        int half = Math.max(radius, (labelWidth + 1) / 2) + STROKE_PAD;
+        int baseline = y + fm.getAscent()/2 - 2;
+        int top = Math.min(y - radius - STROKE_PAD, baseline - fm.getAscent());
+        int bottom = Math.max(y + radius + STROKE_PAD, baseline + fm.getDescent());
+        return new Rectangle(x - half, top, half*2 + 1, bottom - top + 1);
+    }
+
+    static int measureLabel(String label) {
+        return labelMetrics().stringWidth(label != null ? label : "");
+    }
+
+    /**
+     * Sets the font draw() will find on the canvas Graphics, so paint bounds are measured
+     * in the label font it derives from it. Returns false if base is already in use.
+     */
+    static synchronized boolean setLabelBaseFont(Font base) {
+        LabelFont current = labelFont;
+        if (base == null || base.equals(current.base)) return false;
+        labelFont = new LabelFont(base, current.generation + 1);
+        return true;
+    }
+
+    /** The font labels are currently measured against; renderers outside the canvas draw with it too. */
+    static Font labelBaseFont() { return labelFont.base; }
+
+    /** Changes whenever the label base font does, so measured label widths can be checked. */
+    static int labelFontGeneration() { return labelFont.generation; }
 
     void draw(Graphics2D g, boolean selected) {
+        paint(g, x, y, radius, style, selected);
+    }
+
+    /** Draws a circle with the given look centered at (x, y); shared with SpriteCache. */
+    static void paint(Graphics2D g, int x, int y, int radius, ShapeStyle style, boolean selected) {
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         int d = radius*2;
-        g.setColor(color);
+        g.setColor(style.fill);
         g.fillOval(x - radius, y - radius, d, d);
-        g.setStroke(new BasicStroke(selected ? 4f : 2f));
-        Color outline = (color != null) ? color.darker().darker() : Color.DARK_GRAY;
-        g.setColor(selected ? Color.YELLOW : outline);
+        g.setStroke(selected ? ShapeStyle.SELECTED_STROKE : ShapeStyle.OUTLINE_STROKE);
+        g.setColor(selected ? Color.YELLOW : style.outline);
         g.drawOval(x - radius, y - radius, d, d);
 
-        g.setFont(g.getFont().deriveFont(Font.BOLD, 12f));
+        // put the base font back, so the next shape (and the label font cache) sees it again
+        Font base = g.getFont();
+        g.setFont(ShapeStyle.labelFont(base));
         FontMetrics fm = g.getFontMetrics();
-        String lbl = label != null ? label : "";
+        String lbl = style.text();
         int tw = fm.stringWidth(lbl);
         g.setColor(Color.WHITE);
         g.drawString(lbl, x - tw/2, y + fm.getAscent()/2 - 2);
+        g.setFont(base);
+    }
+
+    void moveBy(int dx, int dy) {
+        Rectangle old = getPaintBounds();
+        x += dx; y += dy;
+        fireChanged(old, ShapeEdit.move(dx, dy));
+    }
+
+    void fireChanged(Rectangle oldBounds, ShapeEdit edit) {
+        if (changeListener != null) changeListener.shapeChanged(this, oldBounds, edit);
+    }
+
+    /** Metrics matching the bold 12pt label font draw() derives from the canvas font. */
+    private static FontMetrics labelMetrics() {
+        return labelFont.metrics();
     }
 
-    void moveBy(int dx, int dy) { x += dx; y += dy; }
+    /** A label base font with the metrics of its label derivation, measured on first use. */
+    private static final class LabelFont {
+        final Font base;
+        final int generation;
+        private volatile FontMetrics metrics;
+
+        LabelFont(Font base, int generation) {
+            this.base = base;
+            this.generation = generation;
+        }
+
+        FontMetrics metrics() {
+            FontMetrics fm = metrics;
+            if (fm == null) {
+                Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+                metrics = fm = g.getFontMetrics(ShapeStyle.labelFont(base));
+                g.dispose();
+            }
+            return fm;
+        }
+    }
 }
 
-class ShapeManager {
+/**
+ * Storage backend behind ShapeManager. Ids are dense and handed out in insertion order,
+ * which is also the paint (z) order.
+ */
+interface ShapeStore {
+    int size();
+
+    /** The shape with this id: the stored object itself or a lightweight handle onto it. */
+    CircleShape get(int id);
+
+    /** Stores the shape and returns its id. */
+    int add(CircleShape s);
+
+    /** Stores every shape of the batch with consecutive ids and returns the first. */
+    int addBatch(ShapeBatch batch);
+
+    /** Stores a shape given by its fields; loaders use this to skip building a CircleShape. */
+    int add(ShapeStyle style, int x, int y, int radius);
+
+    default int add(String label, int x, int y, int radius, Color color) {
+        return add(ShapeStyle.of(color, label), x, y, radius);
+    }
+
+    /** Drops every shape; ids restart at 0. */
+    void clear();
+
+    /** Drops the shapes with id >= size. */
+    void truncate(int size);
+
+    int getX(int id);
+    int getY(int id);
+    int getRadius(int id);
+    ShapeStyle getStyle(int id);
+    default Color getColor(int id) { return getStyle(id).fill; }
+    default String getLabel(int id) { return getStyle(id).label; }
+    Rectangle getPaintBounds(int id);
+    boolean contains(int id, int px, int py);
+
+    /** Receives every mutation made through the shapes this store hands out. */
+    void setChangeListener(ShapeChangeListener l);
+}
+
+/** Default backend: one CircleShape object per placed shape. */
+class ObjectShapeStore implements ShapeStore {
     private final List<CircleShape> shapes = new ArrayList<>();
-    private CircleShape selected;
+    private ShapeChangeListener listener;
+
+    @Override public int size() { return shapes.size(); }
+    @Override public CircleShape get(int id) { return shapes.get(id); }
+
+    @Override public int add(CircleShape s) {
+        s.attach(shapes.size(), listener);
+        shapes.add(s);
+        return s.getId();
+    }
+
+    @Override public int add(ShapeStyle style, int x, int y, int radius) {
+        return add(new CircleShape(style, x, y, radius));
+    }
+
+    @Override public void clear() { shapes.clear(); }
+    @Override public void truncate(int size) { shapes.subList(size, shapes.size()).clear(); }
+
+    @Override public int addBatch(ShapeBatch b) {
+        int first = shapes.size();
+        if (shapes instanceof ArrayList) ((ArrayList<CircleShape>) shapes).ensureCapacity(first + b.size());
+        for (int i = 0; i < b.size(); i++) add(new CircleShape(b.style, b.xs[i], b.ys[i], b.radius));
+        return first;
+    }
+
+    @Override public int getX(int id) { return shapes.get(id).getX(); }
+    @Override public int getY(int id) { return shapes.get(id).getY(); }
+    @Override public int getRadius(int id) { return shapes.get(id).getRadius(); }
+    @Override public ShapeStyle getStyle(int id) { return shapes.get(id).getStyle(); }
+    @Override public Rectangle getPaintBounds(int id) { return shapes.get(id).getPaintBounds(); }
+    @Override public boolean contains(int id, int px, int py) { return shapes.get(id).contains(px, py); }
+    @Override public void setChangeListener(ShapeChangeListener l) { this.listener = l; }
+}
+
+/**
+ * Placed shapes, their index and the selection. Confined to the EDT, which is what lets
+ * painting read it without locks; other threads change the scene through SceneEditQueue.
+ * A manager that never reaches the UI, like a ThumbnailService job's, may instead be
+ * confined to the one thread that created it.
+ */
+class ShapeManager {
+    private final ShapeStore store;
+    private CircleShape selected; // primary selection, shown in the inspector
+    private final BitSet selection = new BitSet(); // every selected id, including the primary
+    private Rectangle pendingDirty; // collects dirty areas while a bulk edit runs
+    private boolean batching;
     private final List<ConsumerSelection> selectionListeners = new ArrayList<>();
+    private final List<ConsumerDirtyRegion> dirtyListeners = new ArrayList<>();
+    private final List<SceneEditListener> editListeners = new ArrayList<>();
+    private final ShapeGridIndex index;
+    private int gestureDepth; // nested gestures fold into the outermost one
+    private long version;     // bumped by every change to the shapes
+
+    ShapeManager() {
+        this(new ObjectShapeStore());
+    }
+
+    ShapeManager(ShapeStore store) {
+        this.store = store;
+        this.index = new ShapeGridIndex(store, 64);
+        store.setChangeListener(this::shapeChanged);
+    }
 
     void addShape(CircleShape s) {
-        shapes.add(s);
-        setSelected(s);
+        version++;
+        int id = store.add(s);
+        index.insert(id);
+        for (SceneEditListener l : editListeners) l.shapesAdded(id, 1);
+        setSelected(store.get(id));
+    }
+
+    /**
+     * Places a whole batch in one step. Unlike addShape the selection is left alone and
+     * listeners get a single dirty region covering the batch.
+     */
+    void addShapes(ShapeBatch batch) {
+        if (batch.size() == 0) return;
+        version++;
+        int first = store.addBatch(batch);
+        // every clone has the same paint bounds relative to its center
+        Rectangle template = store.getPaintBounds(first);
+        template.translate(-batch.xs[0], -batch.ys[0]);
+        Rectangle b = new Rectangle(template);
+        Rectangle dirty = null;
+        for (int i = 0; i < batch.size(); i++) {
+            b.setLocation(template.x + batch.xs[i], template.y + batch.ys[i]);
+            index.insert(first + i, b);
+            if (dirty == null) dirty = new Rectangle(b); else dirty.add(b);
+        }
+        for (SceneEditListener l : editListeners) l.shapesAdded(first, batch.size());
+        fireDirty(dirty);
+    }
+
+    /**
+     * Indexes shapes a loader appended directly to the store, from id first to the end,
+     * and announces them with one dirty region.
+     */
+    void commitAppended(int first) {
+        version++;
+        Rectangle dirty = null;
+        for (int id = first, n = store.size(); id < n; id++) {
+            Rectangle b = store.getPaintBounds(id);
+            index.insert(id, b);
+            if (dirty == null) dirty = b; else dirty.add(b);
+        }
+        if (store.size() > first) {
+            for (SceneEditListener l : editListeners) l.shapesAdded(first, store.size() - first);
+        }
+        if (dirty != null) fireDirty(dirty);
+    }
+
+    /** Removes the shapes with id >= size, newest first in z-order; used to undo clones. */
+    void truncate(int size) {
+        Rectangle dirty = null;
+        for (int id = size, n = store.size(); id < n; id++) {
+            Rectangle b = store.getPaintBounds(id);
+            index.remove(id, b);
+            if (dirty == null) dirty = b; else dirty.add(b);
+        }
+        if (dirty == null) return;
+        version++;
+        store.truncate(size);
+        if (selection.length() > size) {
+            selection.clear(size, selection.length());
+            if (selected != null && selected.getId() >= size) selected = null;
+            for (ConsumerSelection l : selectionListeners) l.selected(selected);
+        }
+        for (SceneEditListener l : editListeners) l.shapesTruncated(size);
+        fireDirty(dirty);
     }
 
-    List<CircleShape> getShapes() { return Collections.unmodifiableList(shapes); }
+    /** Removes every shape and clears the selection. */
+    void clear() {
+        Rectangle dirty = null;
+        for (int id = 0, n = store.size(); id < n; id++) {
+            Rectangle b = store.getPaintBounds(id);
+            if (dirty == null) dirty = b; else dirty.add(b);
+        }
+        version++;
+        store.clear();
+        index.clear();
+        selection.clear(); // the ids are gone, so there is nothing to repaint for them
+        setSelected(null);
+        for (SceneEditListener l : editListeners) l.sceneReset();
+        if (dirty != null) fireDirty(dirty);
+    }
+
+    /** Rebuilds the grid index from the store, e.g. after the label font changed every shape's paint bounds. */
+    void reindex() {
+        index.clear();
+        for (int id = 0, n = store.size(); id < n; id++) index.insert(id);
+        if (store.size() > 0) fireDirty(index.extent());
+    }
+
+    /** Read-only view in z-order; with a columnar store each get() creates a handle. */
+    List<CircleShape> getShapes() {
+        return new AbstractList<CircleShape>() {
+            @Override public CircleShape get(int i) { return store.get(i); }
+            @Override public int size() { return store.size(); }
+        };
+    }
+
+    int size() { return store.size(); }
 
+    /** Changes whenever a shape is added, removed or edited; selection changes do not count. */
+    long version() { return version; }
+
+    ShapeStore getStore() { return store; }
+
+    /** Topmost shape under the point, same result as a back-to-front scan of getShapes(). */
+    CircleShape pickAt(int x, int y) {
+        long t0 = Metrics.start();
+        int id = index.topmostAt(x, y);
+        Metrics.PICK.stop(t0);
+        return id < 0 ? null : store.get(id);
+    }
+
+    /** Ids of shapes whose paint bounds touch the area, in z-order. */
+    int[] idsIn(Rectangle area) { return index.query(area); }
+
+    /** A rectangle containing every shape, or null for an empty scene; may be loose. */
+    Rectangle extent() { return store.size() == 0 ? null : index.extent(); }
+
+    /** Makes s the only selected shape, or clears the selection for null. */
     void setSelected(CircleShape s) {
+        Rectangle dirty = selectionBounds();
+        selection.clear();
         this.selected = s;
+        if (s != null) {
+            selection.set(s.getId());
+            dirty = union(dirty, s.getPaintBounds());
+        }
+        if (dirty != null) fireDirty(dirty);
         for (ConsumerSelection l : selectionListeners) l.selected(s);
     }
 
+    /**
+     * Selects the given ids, replacing the selection unless add is set. The last id becomes
+     * the primary selection.
+     */
+    void select(int[] ids, boolean add) {
+        Rectangle dirty = add ? null : selectionBounds();
+        if (!add) {
+            selection.clear();
+            selected = null;
+        }
+        for (int id : ids) {
+            selection.set(id);
+            dirty = union(dirty, store.getPaintBounds(id));
+        }
+        if (ids.length > 0) selected = store.get(ids[ids.length - 1]);
+        if (dirty != null) fireDirty(dirty);
+        for (ConsumerSelection l : selectionListeners) l.selected(selected);
+    }
+
+    /**
+     * Re-announces the selection after undo or redo changed the selected shapes, keeping
+     * every selected id that is still in the scene.
+     */
+    void refreshSelection() {
+        int size = store.size();
+        if (selection.length() > size) selection.clear(size, selection.length());
+        if (selected != null && selected.getId() >= size) selected = null;
+        for (ConsumerSelection l : selectionListeners) l.selected(selected);
+    }
+
     CircleShape getSelected() { return selected; }
 
+    boolean isSelected(int id) { return selection.get(id); }
+
+    int selectionCount() { return selection.cardinality(); }
+
+    /** Selected ids in z-order. */
+    int[] selectedIds() { return selection.stream().toArray(); }
+
+    /** Union of the paint bounds of all selected shapes, or null if nothing is selected. */
+    Rectangle selectionBounds() {
+        Rectangle r = null;
+        for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+            r = union(r, store.getPaintBounds(id));
+        }
+        return r;
+    }
+
+    /** Moves every selected shape; listeners get one dirty region for the whole group. */
+    void moveSelection(int dx, int dy) {
+        if ((dx | dy) == 0 || selection.isEmpty()) return;
+        batching = true;
+        try {
+            for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+                store.get(id).moveBy(dx, dy);
+            }
+        } finally {
+            batching = false;
+        }
+        Rectangle dirty = pendingDirty;
+        pendingDirty = null;
+        if (dirty != null) fireDirty(dirty);
+    }
+
+    /**
+     * Moves shape id to (xs[id], ys[id]) for every id the arrays cover that is still in the
+     * scene; listeners get one dirty region for all of them.
+     */
+    void moveTo(int[] xs, int[] ys) {
+        int n = Math.min(Math.min(xs.length, ys.length), store.size());
+        batching = true;
+        try {
+            for (int id = 0; id < n; id++) {
+                int dx = xs[id] - store.getX(id), dy = ys[id] - store.getY(id);
+                if ((dx | dy) != 0) store.get(id).moveBy(dx, dy);
+            }
+        } finally {
+            batching = false;
+        }
+        Rectangle dirty = pendingDirty;
+        pendingDirty = null;
+        if (dirty != null) fireDirty(dirty);
+    }
+
     void addSelectionListener(ConsumerSelection l) { selectionListeners.add(l); }
+
+    void addDirtyRegionListener(ConsumerDirtyRegion l) { dirtyListeners.add(l); }
+
+    void addEditListener(SceneEditListener l) { editListeners.add(l); }
+
+    void removeEditListener(SceneEditListener l) { editListeners.remove(l); }
+
+    /**
+     * Groups the following edits into one user action until endGesture. Gestures nest:
+     * one begun while another is open joins it, and listeners only see the outermost.
+     */
+    void beginGesture() {
+        if (gestureDepth++ == 0) {
+            for (SceneEditListener l : editListeners) l.gestureStarted();
+        }
+    }
+
+    void endGesture() {
+        if (gestureDepth == 0) throw new IllegalStateException("No gesture open");
+        if (--gestureDepth == 0) {
+            for (SceneEditListener l : editListeners) l.gestureEnded();
+        }
+    }
+
+    boolean inGesture() { return gestureDepth > 0; }
+
+    private void shapeChanged(CircleShape s, Rectangle oldBounds, ShapeEdit edit) {
+        version++;
+        Rectangle newBounds = s.getPaintBounds();
+        index.update(s.getId(), oldBounds, newBounds);
+        for (SceneEditListener l : editListeners) l.shapeEdited(s.getId(), edit);
+        Rectangle dirty = oldBounds.union(newBounds);
+        if (batching) pendingDirty = union(pendingDirty, dirty);
+        else fireDirty(dirty);
+    }
+
+    private static Rectangle union(Rectangle acc, Rectangle r) {
+        if (acc == null) return new Rectangle(r);
+        acc.add(r);
+        return acc;
+    }
+
+    private void fireDirty(Rectangle area) {
+        for (ConsumerDirtyRegion l : dirtyListeners) l.dirty(area);
+    }
 }
 
 /**
@@ -118,29 +605,148 @@ class ShapeManager {
  */
 class PrototypeRegistry {
     private final LinkedHashMap<String, CirclePrototype> prototypes = new LinkedHashMap<>();
+    private final List<PrototypeListener> listeners = new ArrayList<>();
 
     void register(String name, CirclePrototype proto) {
         prototypes.put(name, proto);
+        for (PrototypeListener l : listeners) l.prototypeRegistered(name, proto);
     }
 
+    void addListener(PrototypeListener l) { listeners.add(l); }
+
+    void removeListener(PrototypeListener l) { listeners.remove(l); }
+
     /**
      * Spawn a CircleShape on the canvas centered around canvasW/canvasH with a random offset.
      * Returns the created CircleShape (caller should add it to ShapeManager).
      */
     CircleShape spawnShape(String name, int canvasW, int canvasH) {
+        return spawnShape(name, new Rectangle(0, 0, canvasW, canvasH));
+    }
+
+    /** Like spawnShape(name, w, h), around the middle of a world area such as the visible part of a zoomed canvas. */
+    CircleShape spawnShape(String name, Rectangle view) {
+        long t0 = Metrics.start();
         CirclePrototype p = prototypes.get(name);
         if (p == null) throw new IllegalArgumentException("Prototype not found: " + name);
-        int x = canvasW/2 + (int)((Math.random()-0.5)*200);
-        int y = canvasH/2 + (int)((Math.random()-0.5)*200);
-        return p.spawnAt(Math.max(40, x), Math.max(40, y));
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int x = (int) view.getCenterX() + (int)((rnd.nextDouble()-0.5)*200);
+        int y = (int) view.getCenterY() + (int)((rnd.nextDouble()-0.5)*200);
+        CircleShape s = p.spawnAt(Math.max(view.x + 40, x), Math.max(view.y + 40, y));
+        Metrics.SPAWN.stop(t0);
+        return s;
+    }
+
+    /**
+     * Like spawnShape, but at a spot inside view where the clone does not overlap any placed
+     * shape. Falls back to spawnShape when the view has no room left.
+     */
+    CircleShape spawnShape(String name, Rectangle view, PlacementEngine placement) {
+        CirclePrototype p = prototypes.get(name);
+        if (p == null) throw new IllegalArgumentException("Prototype not found: " + name);
+        long t0 = Metrics.start();
+        Point free = placement.findFree(p.getRadius(), view);
+        if (free == null) return spawnShape(name, view);
+        CircleShape s = p.spawnAt(free.x, free.y);
+        Metrics.SPAWN.stop(t0);
+        return s;
+    }
+
+    /**
+     * Up to count clones packed into bounds without overlapping each other or the scene;
+     * fewer when bounds fills up. Pass the result to ShapeManager.addShapes.
+     */
+    ShapeBatch packClones(String name, int count, Rectangle bounds, PlacementEngine placement, long seed) {
+        CirclePrototype p = prototypes.get(name);
+        if (p == null) throw new IllegalArgumentException("Prototype not found: " + name);
+        return placement.pack(p.getStyle(), p.getRadius(), count, bounds, seed);
+    }
+
+    /**
+     * Spawn count clones of a prototype at uniformly random positions keeping each circle
+     * inside bounds where it fits. Positions are generated in parallel on the common
+     * fork-join pool; the same seed always yields the same batch. Pass the result to
+     * ShapeManager.addShapes to place it in one step.
+     */
+    ShapeBatch spawnBatch(String name, int count, Rectangle bounds, long seed) {
+        CirclePrototype p = prototypes.get(name);
+        if (p == null) throw new IllegalArgumentException("Prototype not found: " + name);
+        if (count < 0) throw new IllegalArgumentException("Negative count: " + count);
+        int r = p.getRadius();
+        int minX = bounds.x + r, spanX = Math.max(1, bounds.width - 2*r);
+        int minY = bounds.y + r, spanY = Math.max(1, bounds.height - 2*r);
+        if (bounds.width < 2*r) minX = (int) bounds.getCenterX();
+        if (bounds.height < 2*r) minY = (int) bounds.getCenterY();
+        int[] xs = new int[count], ys = new int[count];
+        ForkJoinPool.commonPool().invoke(new FillPositions(xs, ys, 0, count, new SplittableRandom(seed), minX, spanX, minY, spanY));
+        return new ShapeBatch(p.getStyle(), r, xs, ys);
+    }
+
+    private static final class FillPositions extends RecursiveAction {
+        private static final int CHUNK = 1 << 16;
+        private final int[] xs, ys;
+        private final int from, to;
+        private final SplittableRandom rnd;
+        private final int minX, spanX, minY, spanY;
+
+        FillPositions(int[] xs, int[] ys, int from, int to, SplittableRandom rnd, int minX, int spanX, int minY, int spanY) {
+            this.xs = xs; this.ys = ys;
+            this.from = from; this.to = to;
+            this.rnd = rnd;
+            this.minX = minX; this.spanX = spanX;
+            this.minY = minY; this.spanY = spanY;
+        }
+
+        @Override protected void compute() {
+            if (to - from <= CHUNK) {
+                for (int i = from; i < to; i++) {
+                    xs[i] = minX + rnd.nextInt(spanX);
+                    ys[i] = minY + rnd.nextInt(spanY);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            // split before forking so the tree of generators only depends on the seed
+            SplittableRandom left = rnd.split();
+            invokeAll(new FillPositions(xs, ys, from, mid, left, minX, spanX, minY, spanY),
+                      new FillPositions(xs, ys, mid, to, rnd, minX, spanX, minY, spanY));
+        }
     }
 
     Set<String> keys() {
         return prototypes.keySet();
     }
 
+    /**
+     * Replaces the prototype under oldKey with proto under newKey, keeping its place in the
+     * order. Fails if oldKey is not registered or newKey is taken by another prototype.
+     */
+    void rename(String oldKey, String newKey, CirclePrototype proto) {
+        if (!prototypes.containsKey(oldKey)) throw new IllegalArgumentException("Prototype not found: " + oldKey);
+        if (oldKey.equals(newKey)) {
+            register(newKey, proto);
+            return;
+        }
+        if (prototypes.containsKey(newKey)) throw new IllegalArgumentException("Prototype already exists: " + newKey);
+        List<Map.Entry<String, CirclePrototype>> entries = new ArrayList<>(prototypes.entrySet());
+        prototypes.clear();
+        for (Map.Entry<String, CirclePrototype> e : entries) {
+            if (e.getKey().equals(oldKey)) prototypes.put(newKey, proto);
+            else prototypes.put(e.getKey(), e.getValue());
+        }
+        for (PrototypeListener l : listeners) l.prototypeRenamed(oldKey, newKey, proto);
+    }
+
+    boolean contains(String key) { return prototypes.containsKey(key); }
+
     void remove(String key) {
-        prototypes.remove(key);
+        if (prototypes.remove(key) == null) return;
+        for (PrototypeListener l : listeners) l.prototypeRemoved(key);
+    }
+
+    void clear() {
+        prototypes.clear();
+        for (PrototypeListener l : listeners) l.prototypesCleared();
     }
 
     CirclePrototype getPrototypeForEdit(String key) {
@@ -150,8 +756,92 @@ class PrototypeRegistry {
     }
 }
 
+/**
+ * Many clones of one prototype that differ only in position, as produced by
+ * PrototypeRegistry.spawnBatch.
+ */
+class ShapeBatch {
+    final ShapeStyle style;
+    final int radius;
+    final int[] xs, ys;
+
+    ShapeBatch(ShapeStyle style, int radius, int[] xs, int[] ys) {
+        this.style = style;
+        this.radius = radius;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    int size() { return xs.length; }
+}
+
 interface ConsumerSelection { void selected(CircleShape s); }
 
+interface ShapeChangeListener { void shapeChanged(CircleShape s, Rectangle oldBounds, ShapeEdit edit); }
+
+/**
+ * What one CircleShape mutation changed, with enough of the old state to reverse it.
+ * MOVE carries (dx, dy) in a/b, RESIZE the old and new radius; RECOLOR and RELABEL keep
+ * the old and new value in before/after.
+ */
+final class ShapeEdit {
+    enum Kind { MOVE, RESIZE, RECOLOR, RELABEL }
+
+    final Kind kind;
+    final int a, b;
+    final Object before, after;
+
+    private ShapeEdit(Kind kind, int a, int b, Object before, Object after) {
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+        this.before = before;
+        this.after = after;
+    }
+
+    static ShapeEdit move(int dx, int dy) { return new ShapeEdit(Kind.MOVE, dx, dy, null, null); }
+    static ShapeEdit resize(int from, int to) { return new ShapeEdit(Kind.RESIZE, from, to, null, null); }
+    static ShapeEdit recolor(Color from, Color to) { return new ShapeEdit(Kind.RECOLOR, 0, 0, from, to); }
+    static ShapeEdit relabel(String from, String to) { return new ShapeEdit(Kind.RELABEL, 0, 0, from, to); }
+}
+
+/** Observes scene content changes, e.g. for undo or journaling. */
+interface SceneEditListener {
+    void shapeEdited(int id, ShapeEdit edit);
+
+    /** Shapes firstId .. firstId+count-1 were appended. */
+    default void shapesAdded(int firstId, int count) {}
+
+    /** Shapes from id size onward were removed. */
+    default void shapesTruncated(int size) {}
+
+    /** The scene was cleared or replaced wholesale. */
+    default void sceneReset() {}
+
+    /** Edits until gestureEnded belong to one user action, such as a drag. */
+    default void gestureStarted() {}
+
+    default void gestureEnded() {}
+}
+
+/** Receives every change to a PrototypeRegistry, on the thread that made it. */
+interface PrototypeListener {
+    /** key now maps to proto, replacing any earlier prototype under that key. */
+    void prototypeRegistered(String key, CirclePrototype proto);
+
+    void prototypeRemoved(String key);
+
+    /** oldKey's prototype now lives under newKey as proto, in the same position. */
+    default void prototypeRenamed(String oldKey, String newKey, CirclePrototype proto) {
+        prototypeRemoved(oldKey);
+        prototypeRegistered(newKey, proto);
+    }
+
+    default void prototypesCleared() {}
+}
+
+interface ConsumerDirtyRegion { void dirty(Rectangle area); }
+
 class PrototypeEditorDialog extends JDialog {
     private CirclePrototype created;
     JTextField nameField;
@@ -224,102 +914,690 @@ class CanvasPanel extends JPanel {
     private final ShapeManager shapeManager;
     Consumer<String> logger;
     private ConsumerSelection selectionListener;
+    private Runnable viewKeyListener;
+    private BufferedImage background;
+    private int backgroundRebuilds;
+    // drag mode: scene below and above the dragged shape, rasterized once on press
+    private BufferedImage dragBelow, dragAbove;
+    // group drag: dragAbove holds the selected shapes and is blitted at the drag offset
+    private boolean draggingGroup;
+    private Rectangle groupBounds;
+    private Point groupStart;
+    private int groupDx, groupDy;
+    // rubber-band selection in progress, in screen coordinates
+    private Point marqueeStart;
+    private Rectangle marquee;
+    private static final Color MARQUEE_FILL = new Color(120, 170, 255, 40);
+    private static final Color MARQUEE_EDGE = new Color(120, 170, 255, 200);
+    // viewport: screen = world * scale + pan; shapes, picking and dragging work in world units
+    static final double MIN_SCALE = 1 / 256.0, MAX_SCALE = 16;
+    /** Below this zoom labels and outlines are dropped and circles drawn as plain discs. */
+    static final double DETAIL_SCALE = 0.5;
+    private double scale = 1;
+    private int panX, panY;
+    private Point panStart;
+    private BufferedImage lodLayer; // zoomed frames are composed here so tiny shapes can be written as pixels
+    // metrics overlay, see Metrics
+    private static final Rectangle HUD_BOX = new Rectangle(8, 8, 300, 90);
+    private static final Color HUD_FILL = new Color(0, 0, 0, 170);
+    private static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private boolean hudVisible, hudRefresh;
+    private int lastDrawn, lastCulled; // of the last paint that covered the whole canvas
+    private long fpsWindowStart;
+    private int fpsFrames;
+    private double fps;
+    private final SpriteCache sprites = new SpriteCache(32L << 20);
+    private final RepaintScheduler repaints = new RepaintScheduler(this, Integer.getInteger("canvas.fps", 60));
+    // while set, shapes are painted from its frames and only the view can be changed
+    private ParticleSimulation simulation;
+    private final AtomicBoolean simulationFramePending = new AtomicBoolean();
 
     CanvasPanel(ShapeManager shapeManager, Consumer<String> logger) {
         this.shapeManager = shapeManager;
         this.logger = logger;
         setPreferredSize(new Dimension(600, 480));
+        setFont(getFont()); // measure labels in this canvas' font from the start
 
         MouseAdapter ma = new MouseAdapter() {
             @Override public void mousePressed(MouseEvent e) {
+                if (!SwingUtilities.isLeftMouseButton(e)) { // right or middle drag pans the view
+                    panStart = e.getPoint();
+                    setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+                    return;
+                }
+                if (simulation != null) return; // shapes are elsewhere than the scene says until it stops
                 CircleShape picked = pickAt(e.getX(), e.getY());
-                if (picked != null) {
+                if (picked != null && e.isShiftDown()) {
+                    shapeManager.select(new int[]{picked.getId()}, true);
+                } else if (picked != null && shapeManager.isSelected(picked.getId()) && shapeManager.selectionCount() > 1) {
+                    dragStart = e.getPoint();
+                    groupStart = toWorld(e.getX(), e.getY());
+                    setCursor(grabCursor);
+                    freezeGroupLayers();
+                    // one undo step, and queued batches wait rather than land under the frozen layers
+                    if (draggingGroup) shapeManager.beginGesture();
+                } else if (picked != null) {
                     shapeManager.setSelected(picked);
                     draggingShape = picked;
-                    dragStart = e.getPoint();
+                    dragStart = toWorld(e.getX(), e.getY());
                     setCursor(grabCursor);
+                    freezeDragLayers(picked);
+                    shapeManager.beginGesture(); // the whole drag is one undo step
                 } else {
-                    shapeManager.setSelected(null);
+                    if (!e.isShiftDown()) shapeManager.setSelected(null);
+                    marqueeStart = e.getPoint();
                 }
-                repaint();
             }
 
             @Override public void mouseReleased(MouseEvent e) {
+                if (panStart != null) {
+                    panStart = null;
+                    setCursor(Cursor.getDefaultCursor());
+                    return;
+                }
+                if (draggingShape != null) shapeManager.endGesture();
+                if (draggingGroup) {
+                    dropGroup(e.getX(), e.getY());
+                    shapeManager.endGesture();
+                }
+                if (marqueeStart != null) finishMarquee(e.isShiftDown());
                 draggingShape = null;
+                releaseDragLayers();
                 setCursor(Cursor.getDefaultCursor());
             }
 
             @Override public void mouseDragged(MouseEvent e) {
-                if (draggingShape != null && dragStart != null) {
-                    int dx = e.getX() - dragStart.x;
-                    int dy = e.getY() - dragStart.y;
-                    draggingShape.moveBy(dx, dy);
+                if (panStart != null) {
+                    panX += e.getX() - panStart.x;
+                    panY += e.getY() - panStart.y;
+                    panStart = e.getPoint();
+                    repaints.invalidateAll();
+                } else if (draggingGroup) {
+                    // only the layer offset changes; shapes are moved once, on release
+                    Rectangle old = groupArea();
+                    groupDx += e.getX() - dragStart.x;
+                    groupDy += e.getY() - dragStart.y;
                     dragStart = e.getPoint();
-                    repaint();
+                    repaints.invalidate(old.union(groupArea()));
+                } else if (marqueeStart != null) {
+                    Rectangle old = marquee;
+                    marquee = new Rectangle(marqueeStart);
+                    marquee.add(e.getPoint());
+                    Rectangle dirty = old != null ? old.union(marquee) : new Rectangle(marquee);
+                    dirty.grow(2, 2);
+                    repaints.invalidate(dirty);
+                } else if (draggingShape != null && dragStart != null) {
+                    Point p = toWorld(e.getX(), e.getY());
+                    int dx = p.x - dragStart.x;
+                    int dy = p.y - dragStart.y;
+                    draggingShape.moveBy(dx, dy); // invalidates old + new bounds via the dirty listener
+                    dragStart = p;
                 }
             }
 
             @Override public void mouseClicked(MouseEvent e) {
-                if (e.getClickCount() == 2) {
+                if (e.getClickCount() == 2 && simulation == null) {
                     CircleShape clicked = pickAt(e.getX(), e.getY());
                     if (clicked != null) {
-                        CircleShape copy = new CircleShape(clicked.getLabel() + " ✦", clicked.getX() + 30, clicked.getY() + 30, clicked.getRadius(), clicked.getColor());
+                        // mark a copy once; copying a copy shares its style instead of growing the label
+                        ShapeStyle style = clicked.getStyle();
+                        if (style.label == null || !style.label.endsWith(" ✦")) style = style.withLabel(style.text() + " ✦");
+                        CircleShape copy = new CircleShape(style, clicked.getX() + 30, clicked.getY() + 30, clicked.getRadius());
                         shapeManager.addShape(copy);
                         if (logger != null) logger.accept("🔁 Cloned shape '" + clicked.getLabel() + "' via double-click.");
-                        repaint();
                     }
                 }
             }
+
+            @Override public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getX(), e.getY(), Math.pow(1.1, -e.getPreciseWheelRotation()));
+            }
         };
 
         addMouseListener(ma);
         addMouseMotionListener(ma);
+        addMouseWheelListener(ma);
+
+        InputMap keys = getInputMap(WHEN_IN_FOCUSED_WINDOW);
+        keys.put(KeyStroke.getKeyStroke("control 0"), "actualSize");
+        keys.put(KeyStroke.getKeyStroke("control 1"), "zoomToFit");
+        keys.put(KeyStroke.getKeyStroke("control EQUALS"), "zoomIn");
+        keys.put(KeyStroke.getKeyStroke("control MINUS"), "zoomOut");
+        keys.put(KeyStroke.getKeyStroke("F3"), "toggleHud");
+        getActionMap().put("actualSize", viewAction(this::resetView));
+        getActionMap().put("zoomToFit", viewAction(this::zoomToFit));
+        getActionMap().put("zoomIn", viewAction(() -> zoomAt(getWidth() / 2, getHeight() / 2, 1.25)));
+        getActionMap().put("zoomOut", viewAction(() -> zoomAt(getWidth() / 2, getHeight() / 2, 0.8)));
+        getActionMap().put("toggleHud", action(() -> setHudVisible(!hudVisible)));
 
         shapeManager.addSelectionListener(s -> {
-            repaint();
             if (selectionListener != null) selectionListener.selected(s);
         });
+        // only the union of old and new bounds of a mutated shape gets repainted, at most once per frame
+        shapeManager.addDirtyRegionListener(area -> repaints.invalidate(toScreen(area)));
+    }
+
+    private static Action action(Runnable r) {
+        return new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) { r.run(); }
+        };
+    }
+
+    private Action viewAction(Runnable r) {
+        return action(() -> {
+            r.run();
+            if (viewKeyListener != null) viewKeyListener.run();
+        });
     }
 
+    /** Called after a keyboard shortcut moved the viewport; mouse pans and zooms are not reported. */
+    void setViewKeyListener(Runnable l) { this.viewKeyListener = l; }
+
     void setSelectionListener(ConsumerSelection l) { this.selectionListener = l; }
 
+    /** Labels are drawn in a derivation of this font, so shapes are re-measured when it changes. */
+    @Override public void setFont(Font font) {
+        super.setFont(font);
+        // the look and feel sets a font before the constructor has run
+        if (shapeManager != null && CircleShape.setLabelBaseFont(font)) shapeManager.reindex();
+    }
+
+    /** Frame-capped invalidation queue; scene changes should go through it rather than repaint(). */
+    RepaintScheduler getRepaintScheduler() { return repaints; }
+
+    /**
+     * Shows sim's frames instead of the scene's shapes, repainting as each one arrives;
+     * null goes back to the scene. Editing with the mouse is off meanwhile.
+     */
+    void setSimulation(ParticleSimulation sim) {
+        if (simulation != null) simulation.setFrameListener(null);
+        simulation = sim;
+        if (sim != null) {
+            // one repaint request in flight at a time, however fast frames come
+            sim.setFrameListener(() -> {
+                if (simulationFramePending.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(() -> {
+                        simulationFramePending.set(false);
+                        repaints.invalidateAll();
+                    });
+                }
+            });
+        }
+        repaints.invalidateAll();
+    }
+
+    ParticleSimulation getSimulation() { return simulation; }
+
+    /** Shape under a screen point, picked in world coordinates. */
     private CircleShape pickAt(int x, int y) {
-        List<CircleShape> list = shapeManager.getShapes();
-        for (int i = list.size()-1; i >= 0; i--) {
-            CircleShape s = list.get(i);
-            if (s.contains(x, y)) return s;
+        Point p = toWorld(x, y);
+        return shapeManager.pickAt(p.x, p.y);
+    }
+
+    // --- viewport -----------------------------------------------------------------------
+
+    double getScale() { return scale; }
+
+    int getPanX() { return panX; }
+
+    int getPanY() { return panY; }
+
+    /** Restores a viewport, e.g. the one an input trace was recorded with. */
+    void setView(double scale, int panX, int panY) {
+        this.scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+        this.panX = panX;
+        this.panY = panY;
+        repaints.invalidateAll();
+    }
+
+    Point toWorld(int sx, int sy) {
+        return new Point((int) Math.floor((sx - panX) / scale), (int) Math.floor((sy - panY) / scale));
+    }
+
+    /** World rectangle covering a screen rectangle. */
+    Rectangle toWorld(Rectangle screen) {
+        Point a = toWorld(screen.x, screen.y);
+        Point b = toWorld(screen.x + screen.width, screen.y + screen.height);
+        return new Rectangle(a.x, a.y, b.x - a.x + 1, b.y - a.y + 1);
+    }
+
+    /** Screen rectangle covering a world rectangle, padded a pixel for rounding. */
+    Rectangle toScreen(Rectangle world) {
+        if (scale == 1) return new Rectangle(world.x + panX, world.y + panY, world.width, world.height);
+        int x0 = (int) Math.floor(world.x * scale) + panX, y0 = (int) Math.floor(world.y * scale) + panY;
+        int x1 = (int) Math.ceil((world.x + world.width) * scale) + panX;
+        int y1 = (int) Math.ceil((world.y + world.height) * scale) + panY;
+        return new Rectangle(x0 - 1, y0 - 1, x1 - x0 + 2, y1 - y0 + 2);
+    }
+
+    /** The part of the world currently on screen. */
+    Rectangle getVisibleWorld() {
+        return toWorld(new Rectangle(0, 0, Math.max(1, getWidth()), Math.max(1, getHeight())));
+    }
+
+    /** Zooms by factor keeping the world point under (sx, sy) in place. */
+    void zoomAt(int sx, int sy, double factor) {
+        double s = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        if (Math.abs(s - 1) < 1e-3) s = 1; // land exactly on 1:1 so the sprite path applies again
+        double wx = (sx - panX) / scale, wy = (sy - panY) / scale;
+        scale = s;
+        panX = (int) Math.round(sx - wx * s);
+        panY = (int) Math.round(sy - wy * s);
+        repaints.invalidateAll();
+    }
+
+    void resetView() {
+        scale = 1;
+        panX = panY = 0;
+        repaints.invalidateAll();
+    }
+
+    /** Fits every shape into the canvas. */
+    void zoomToFit() {
+        Rectangle extent = shapeManager.extent();
+        int w = getWidth(), h = getHeight();
+        if (extent == null || w <= 0 || h <= 0) {
+            resetView();
+            return;
         }
-        return null;
+        double s = Math.min((double) w / extent.width, (double) h / extent.height);
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, s));
+        panX = (int) Math.round(w / 2.0 - extent.getCenterX() * scale);
+        panY = (int) Math.round(h / 2.0 - extent.getCenterY() * scale);
+        repaints.invalidateAll();
+    }
+
+    // --- drag layers --------------------------------------------------------------------
+
+    /**
+     * Rasterizes every shape except the dragged one into two layers split at its z-order,
+     * so drag frames are two blits and a single draw regardless of scene size.
+     */
+    private void freezeDragLayers(CircleShape dragged) {
+        releaseDragLayers();
+        int w = getWidth(), h = getHeight();
+        if (w <= 0 || h <= 0) return;
+        dragBelow = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        dragAbove = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D below = dragBelow.createGraphics();
+        Graphics2D above = dragAbove.createGraphics();
+        below.drawImage(background(w, h), 0, 0, null);
+        below.setFont(getFont());
+        above.setFont(getFont());
+        below.setComposite(ScenePaint.VIGNETTE_ALPHA);
+        above.setComposite(ScenePaint.VIGNETTE_ALPHA);
+        ShapeStore store = shapeManager.getStore();
+        Rectangle view = getVisibleWorld();
+        int draggedId = dragged.getId();
+        for (int id = 0, n = store.size(); id < n; id++) {
+            if (id == draggedId || !mayTouch(store, id, view)) continue;
+            drawShape(id < draggedId ? below : above, store, id, shapeManager.isSelected(id), null, 0, null);
+        }
+        below.dispose();
+        above.dispose();
+    }
+
+    /**
+     * Rasterizes the unselected shapes into dragBelow and the selection into dragAbove, so
+     * a group drag of any size is two blits per frame. The group is lifted above the rest
+     * of the scene while it is being dragged.
+     */
+    private void freezeGroupLayers() {
+        releaseDragLayers();
+        int w = getWidth(), h = getHeight();
+        groupBounds = shapeManager.selectionBounds();
+        if (w <= 0 || h <= 0 || groupBounds == null) return;
+        dragBelow = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        dragAbove = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D below = dragBelow.createGraphics();
+        Graphics2D group = dragAbove.createGraphics();
+        below.drawImage(background(w, h), 0, 0, null);
+        below.setFont(getFont());
+        group.setFont(getFont());
+        below.setComposite(ScenePaint.VIGNETTE_ALPHA);
+        group.setComposite(ScenePaint.VIGNETTE_ALPHA);
+        ShapeStore store = shapeManager.getStore();
+        Rectangle view = getVisibleWorld();
+        for (int id = 0, n = store.size(); id < n; id++) {
+            if (!mayTouch(store, id, view)) continue;
+            boolean sel = shapeManager.isSelected(id);
+            drawShape(sel ? group : below, store, id, sel, null, 0, null);
+        }
+        below.dispose();
+        group.dispose();
+        groupDx = groupDy = 0;
+        draggingGroup = true;
+    }
+
+    /** Where the dragged group currently shows on screen. */
+    private Rectangle groupArea() {
+        Rectangle r = toScreen(groupBounds);
+        r.translate(groupDx, groupDy);
+        return r;
+    }
+
+    /** Applies the group drag to the shapes, inside the gesture the drag opened. */
+    private void dropGroup(int sx, int sy) {
+        draggingGroup = false;
+        repaints.invalidate(groupArea().union(toScreen(groupBounds)));
+        Point end = toWorld(sx, sy);
+        int dx = end.x - groupStart.x, dy = end.y - groupStart.y;
+        if ((dx | dy) == 0) return;
+        shapeManager.moveSelection(dx, dy);
+        if (logger != null) logger.accept("🧲 Moved " + shapeManager.selectionCount() + " selected shapes.");
+    }
+
+    /** Selects the shapes lying entirely inside the marquee, found through the grid index. */
+    private void finishMarquee(boolean add) {
+        Rectangle screen = marquee;
+        marqueeStart = null;
+        marquee = null;
+        if (screen == null) return;
+        Rectangle dirty = new Rectangle(screen);
+        dirty.grow(2, 2);
+        repaints.invalidate(dirty);
+        Rectangle m = toWorld(screen);
+        ShapeStore store = shapeManager.getStore();
+        int[] candidates = shapeManager.idsIn(m);
+        int[] inside = new int[candidates.length];
+        int n = 0;
+        for (int id : candidates) {
+            int x = store.getX(id), y = store.getY(id), r = store.getRadius(id);
+            if (x - r >= m.x && y - r >= m.y && x + r <= m.x + m.width && y + r <= m.y + m.height) inside[n++] = id;
+        }
+        shapeManager.select(Arrays.copyOf(inside, n), add);
+        if (logger != null && n > 0) logger.accept("🔲 Marquee selected " + n + " shapes.");
+    }
+
+    private void releaseDragLayers() {
+        if (dragBelow != null) dragBelow.flush();
+        if (dragAbove != null) dragAbove.flush();
+        dragBelow = null;
+        dragAbove = null;
+    }
+
+    /** Shape sprites reused across frames; exposes hit/miss counters. */
+    SpriteCache getSpriteCache() { return sprites; }
+
+    /** Bytes held by the cached background layer. */
+    long getBackgroundBytes() {
+        return background == null ? 0 : (long) background.getWidth() * background.getHeight() * 4;
+    }
+
+    /** How often the background layer was re-rendered because the canvas size changed. */
+    int getBackgroundRebuilds() { return backgroundRebuilds; }
+
+    /**
+     * Styled background with its radial vignette, rendered once per canvas size. Rebuilding
+     * lazily from paint means a burst of resize events costs a single render.
+     */
+    private BufferedImage background(int w, int h) {
+        if (background != null && background.getWidth() == w && background.getHeight() == h) return background;
+        if (background != null) background.flush();
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        int bw = Math.max(1, w), bh = Math.max(1, h);
+        background = gc != null
+                ? gc.createCompatibleImage(bw, bh, Transparency.OPAQUE)
+                : new BufferedImage(bw, bh, BufferedImage.TYPE_INT_RGB);
+        backgroundRebuilds++;
+
+        Graphics2D g2 = background.createGraphics();
+        ScenePaint.paintBackground(g2, w, h);
+        g2.dispose();
+        return background;
+    }
+
+    private BufferedImage lodLayer(int w, int h) {
+        if (lodLayer == null || lodLayer.getWidth() != w || lodLayer.getHeight() != h) {
+            lodLayer = new BufferedImage(Math.max(1, w), Math.max(1, h), BufferedImage.TYPE_INT_RGB);
+        }
+        return lodLayer;
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        // styled background
+        long t0 = Metrics.start();
         Graphics2D g2 = (Graphics2D) g.create();
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        int drawn = paintFrame(g2, clip);
+        if (hudVisible) paintHud(g2);
+        g2.dispose();
+        if (t0 != 0) frameTimed(t0, drawn, clip);
+    }
+
+    /** Paints the scene into the clip; returns the shapes drawn, or -1 for a drag frame. */
+    private int paintFrame(Graphics2D g2, Rectangle clip) {
         int w = getWidth(), h = getHeight();
-        g2.setColor(new Color(40, 44, 52));
-        g2.fillRect(0, 0, w, h);
+        if (draggingShape != null && dragBelow != null && dragBelow.getWidth() == w && dragBelow.getHeight() == h) {
+            // drag frame: frozen scene with the live shape slotted in at its z-order
+            g2.drawImage(dragBelow, 0, 0, null);
+            Composite plain = g2.getComposite();
+            g2.setComposite(ScenePaint.VIGNETTE_ALPHA);
+            drawShape(g2, shapeManager.getStore(), draggingShape.getId(), shapeManager.isSelected(draggingShape.getId()), null, 0, null);
+            g2.setComposite(plain);
+            g2.drawImage(dragAbove, 0, 0, null);
+            return -1;
+        }
+        if (draggingGroup && dragBelow != null && dragBelow.getWidth() == w && dragBelow.getHeight() == h) {
+            g2.drawImage(dragBelow, 0, 0, null);
+            g2.drawImage(dragAbove, groupDx, groupDy, null);
+            return -1;
+        }
+        int drawn;
+        if (scale == 1) {
+            g2.drawImage(background(w, h), 0, 0, null);
+            // shapes have always been drawn under the vignette's composite
+            g2.setComposite(ScenePaint.VIGNETTE_ALPHA);
+            drawn = simulation != null ? paintSimulation(g2, clip, null, 0) : paintShapes(g2, clip, null, 0);
+        } else {
+            BufferedImage layer = lodLayer(w, h);
+            Graphics2D lg = layer.createGraphics();
+            lg.setClip(clip);
+            lg.drawImage(background(w, h), 0, 0, null);
+            lg.setFont(getFont());
+            lg.setComposite(ScenePaint.VIGNETTE_ALPHA);
+            int[] raster = ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+            drawn = simulation != null ? paintSimulation(lg, clip, raster, layer.getWidth()) : paintShapes(lg, clip, raster, layer.getWidth());
+            lg.dispose();
+            g2.drawImage(layer, 0, 0, null);
+        }
+        if (marquee != null) {
+            g2.setComposite(AlphaComposite.SrcOver);
+            g2.setColor(MARQUEE_FILL);
+            g2.fillRect(marquee.x, marquee.y, marquee.width, marquee.height);
+            g2.setColor(MARQUEE_EDGE);
+            g2.drawRect(marquee.x, marquee.y, marquee.width, marquee.height);
+        }
+        return drawn;
+    }
+
+    // --- metrics HUD ------------------------------------------------------------------
+
+    /** Shows or hides the metrics overlay; timing runs only while it is shown (or JFR records). */
+    void setHudVisible(boolean on) {
+        boolean was = hudVisible;
+        hudVisible = on;
+        Metrics.setHudEnabled(on);
+        fpsFrames = 0;
+        fpsWindowStart = System.nanoTime();
+        repaints.invalidateAll();
+        firePropertyChange("hudVisible", was, on);
+    }
+
+    boolean isHudVisible() { return hudVisible; }
+
+    private void frameTimed(long t0, int drawn, Rectangle clip) {
+        long now = System.nanoTime(), nanos = now - t0;
+        if (hudRefresh && clip.contains(HUD_BOX)) {
+            hudRefresh = false;
+            if (HUD_BOX.equals(clip)) return; // the overlay redrawing itself is not a scene frame
+        }
+        if (drawn < 0) {
+            Metrics.DRAG_FRAME.record(nanos);
+            Metrics.emit(Metrics.DRAG_FRAME, nanos);
+        } else {
+            Metrics.PAINT.record(nanos);
+            // a partial repaint draws only what its clip touches; culled counts the whole view
+            if (clip.contains(new Rectangle(getWidth(), getHeight()))) {
+                lastDrawn = drawn;
+                lastCulled = Math.max(0, shapeManager.size() - drawn);
+            }
+            if (Metrics.isRecording()) MetricEvents.paint(nanos, shapeManager.size(), drawn, scale, clip.width, clip.height);
+        }
+        fpsFrames++;
+        if (now - fpsWindowStart >= 1_000_000_000L) {
+            fps = fpsFrames * 1e9 / (now - fpsWindowStart);
+            fpsFrames = 0;
+            fpsWindowStart = now;
+        }
+        if (hudVisible && !clip.contains(HUD_BOX)) {
+            // a partial repaint elsewhere left the overlay stale; redraw just the overlay
+            hudRefresh = true;
+            repaints.invalidate(HUD_BOX);
+        }
+    }
+
+    private void paintHud(Graphics2D g) {
+        int shapes = shapeManager.size();
+        String[] lines = {
+                String.format("FPS %.1f   frame p50 %s  p99 %s", fps, ms(Metrics.PAINT.percentile(0.5)), ms(Metrics.PAINT.percentile(0.99))),
+                String.format("drag frame p50 %s  p99 %s", ms(Metrics.DRAG_FRAME.percentile(0.5)), ms(Metrics.DRAG_FRAME.percentile(0.99))),
+                String.format("pick p99 %s   spawn p99 %s", ms(Metrics.PICK.percentile(0.99)), ms(Metrics.SPAWN.percentile(0.99))),
+                String.format("shapes %,d   drawn %,d   culled %,d", shapes, lastDrawn, lastCulled),
+                String.format("zoom %.3f%s%s", scale,
+                        simulation != null ? String.format("   sim %.0f steps/s", simulation.getStepsPerSecond()) : "",
+                        Metrics.isRecording() ? "   ● JFR" : "")
+        };
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setColor(HUD_FILL);
+        g.fillRect(HUD_BOX.x, HUD_BOX.y, HUD_BOX.width, HUD_BOX.height);
+        g.setFont(HUD_FONT);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) g.drawString(lines[i], HUD_BOX.x + 8, HUD_BOX.y + 17 + i * 16);
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
 
-        // subtle radial vignette for style
-        for (int i = 0; i < 6; i++) {
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.06f));
-            g2.setColor(new Color(0, 0, 0));
-            g2.fillOval(-w/2 + i*30, -h/2 + i*30, w + i*60, h + i*60);
+    /**
+     * Draws the shapes inside a screen clip. When the clip sees the whole scene every shape
+     * is drawn; when it sees a large part, a cheap bounds test culls the rest; otherwise the
+     * grid index supplies just the shapes in view. Returns the number drawn.
+     */
+    private int paintShapes(Graphics2D g, Rectangle clip, int[] raster, int rasterW) {
+        Rectangle extent = shapeManager.extent();
+        if (extent == null) return 0;
+        Rectangle world = toWorld(clip);
+        ShapeStore store = shapeManager.getStore();
+        int drawn = 0;
+        if (world.contains(extent)) {
+            for (int id = 0, n = store.size(); id < n; id++) drawShape(g, store, id, shapeManager.isSelected(id), raster, rasterW, clip);
+            return store.size();
         }
+        Rectangle seen = world.intersection(extent);
+        if (seen.isEmpty()) return 0;
+        if ((long) seen.width * seen.height * 4 > (long) extent.width * extent.height) {
+            for (int id = 0, n = store.size(); id < n; id++) {
+                if (!mayTouch(store, id, world)) continue;
+                drawShape(g, store, id, shapeManager.isSelected(id), raster, rasterW, clip);
+                drawn++;
+            }
+        } else {
+            for (int id : shapeManager.idsIn(world)) {
+                drawShape(g, store, id, shapeManager.isSelected(id), raster, rasterW, clip);
+                drawn++;
+            }
+        }
+        return drawn;
+    }
 
-        // draw shapes
-        for (CircleShape s : shapeManager.getShapes()) {
-            boolean sel = (s == shapeManager.getSelected());
-            s.draw(g2, sel);
+    /**
+     * Paints the newest frame of the simulation, culled to the clip, then any shapes added
+     * to the scene since it started, which stay put. Returns the number drawn.
+     */
+    private int paintSimulation(Graphics2D g, Rectangle clip, int[] raster, int rasterW) {
+        ParticleSimulation.Frame f = simulation.acquireFrame();
+        if (f == null) return 0;
+        Rectangle world = toWorld(clip);
+        int drawn = 0;
+        try {
+            for (int i = 0, n = f.size(); i < n; i++) {
+                int x = f.xs[i], y = f.ys[i], r = f.radius[i];
+                if (!mayTouch(x, y, r, f.styles[i], world)) continue;
+                drawCircle(g, x, y, r, f.styles[i], shapeManager.isSelected(i), raster, rasterW, clip);
+                drawn++;
+            }
+        } finally {
+            simulation.releaseFrame(f);
+        }
+        ShapeStore store = shapeManager.getStore();
+        for (int id = f.size(), n = store.size(); id < n; id++) {
+            if (!mayTouch(store, id, world)) continue;
+            drawShape(g, store, id, shapeManager.isSelected(id), raster, rasterW, clip);
+            drawn++;
+        }
+        return drawn;
+    }
+
+    /** Conservative test whether a shape's paint bounds can reach into a world area. */
+    private static boolean mayTouch(ShapeStore store, int id, Rectangle world) {
+        return mayTouch(store.getX(id), store.getY(id), store.getRadius(id), store.getStyle(id), world);
+    }
+
+    private static boolean mayTouch(int x, int y, int r, ShapeStyle style, Rectangle world) {
+        int half = Math.max(r, style.labelWidth() / 2 + 1) + 3;
+        int tall = Math.max(r, 16) + 3; // label font ascent stays under 16 px
+        return x + half >= world.x && x - half <= world.x + world.width
+                && y + tall >= world.y && y - tall <= world.y + world.height;
+    }
+
+    /**
+     * Draws one shape at the current zoom. At 1:1 it is a sprite blit. Zoomed, a circle under
+     * 3 px of radius, or any circle below DETAIL_SCALE, is a plain disc without outline or
+     * label (a single pixel under one px), written straight into raster when one is given;
+     * larger ones get the full look, scaled.
+     */
+    private void drawShape(Graphics2D g, ShapeStore store, int id, boolean sel, int[] raster, int rasterW, Rectangle rasterClip) {
+        drawCircle(g, store.getX(id), store.getY(id), store.getRadius(id), store.getStyle(id), sel, raster, rasterW, rasterClip);
+    }
+
+    private void drawCircle(Graphics2D g, int x, int y, int r, ShapeStyle style, boolean sel, int[] raster, int rasterW, Rectangle rasterClip) {
+        if (scale == 1) {
+            sprites.draw(g, x + panX, y + panY, r, style, sel);
+            return;
+        }
+        double rs = r * scale, cx = x * scale + panX, cy = y * scale + panY;
+        Color fill = sel ? Color.YELLOW : style.fill != null ? style.fill : Color.BLACK;
+        if (raster != null && (rs < 3 || scale < DETAIL_SCALE)) {
+            ScenePaint.fillDot(raster, rasterW, rasterClip, cx, cy, rs, fill.getRGB());
+        } else if (rs < 1) {
+            g.setColor(fill);
+            g.fillRect((int) Math.floor(cx), (int) Math.floor(cy), 1, 1);
+        } else if (rs < 3 || scale < DETAIL_SCALE) {
+            int d = (int) Math.round(2 * rs);
+            g.setColor(fill);
+            g.fillOval((int) Math.round(cx - rs), (int) Math.round(cy - rs), d, d);
+        } else {
+            AffineTransform screen = g.getTransform();
+            g.translate(panX, panY);
+            g.scale(scale, scale);
+            CircleShape.paint(g, x, y, r, style, sel);
+            g.setTransform(screen);
         }
-        g2.dispose();
     }
 }
 
 public class DrawingPrototypeApp {
 
     public static void main(String[] args) {
+        // -Dshapes.columnar=true keeps placed shapes in primitive columns for huge scenes
+        // -Dcanvas.fps=N caps canvas repaints (default 60)
+        // -Dlog.capacity=N bounds the activity log, -Dlog.file=path also writes it to a rolling file
+        // -Dautosave=false turns off the crash-recovery journal, -Dautosave.dir=path moves it
+        // -Dsim.hz=N sets the simulation's fixed step rate (default 120)
         SwingUtilities.invokeLater(() -> new DrawingPrototypeApp().start());
 
         ShapePrototype shape = new CirclePrototype("Example", 50, Color.BLUE);
@@ -328,29 +1606,106 @@ public class DrawingPrototypeApp {
 
     private JFrame frame;
     private CanvasPanel canvas;
-    private DefaultListModel<String> prototypeListModel;
+    private PrototypeCatalog catalog;
+    private PrototypeCatalog.View prototypeListModel;
     private JList<String> prototypeJList;
     private JComboBox<String> prototypeCombo;
     private JTextArea logArea;
+    private final ActivityLog activityLog = new ActivityLog(Integer.getInteger("log.capacity", 1000));
     private PrototypeRegistry registry;
     private ShapeManager shapeManager;
+    private UndoJournal undoJournal;
+    private SceneEditQueue editQueue;
+    private PlacementEngine placement;
+    private InputTrace.Recorder recorder; // non-null while an input trace is being recorded
+    private int runningStreams;           // clone streams whose batches may still arrive
+    private SceneJournal autosave;        // null when autosave is off or failed
+    private ParticleSimulation simulation; // non-null while the simulation runs
+    private JButton btnSimulate, btnTrace;
+    private String autosaveStatus;        // logged once the UI is up
+    private JCheckBox avoidOverlap;
 
     private void start() {
+        String logFile = System.getProperty("log.file");
+        if (logFile != null) activityLog.setFileSink(new ActivityLog.FileSink(Paths.get(logFile), 1L << 20, 3));
         registry = new PrototypeRegistry();
-        shapeManager = new ShapeManager();
+        shapeManager = Boolean.getBoolean("shapes.columnar")
+                ? new ShapeManager(new ColumnarShapeStore())
+                : new ShapeManager();
+        autosave = openAutosave();
+        undoJournal = new UndoJournal(shapeManager,
+                Integer.getInteger("undo.capacity", 100_000),
+                Integer.getInteger("undo.snapshotEvery", 250),
+                Long.getLong("undo.budgetBytes", 64L << 20));
+        editQueue = new SceneEditQueue(shapeManager, 64, 8);
+        editQueue.start();
+        placement = new PlacementEngine(shapeManager, 4);
+        // a simulation only knows the shapes it started with; if they go, so does it
+        shapeManager.addEditListener(new SceneEditListener() {
+            @Override public void shapeEdited(int id, ShapeEdit edit) { }
+
+            @Override public void shapesTruncated(int size) {
+                if (simulation != null && size < simulation.size()) stopSimulation(false);
+            }
 
-        // default prototypes
-        registry.register("Tiny Red", new CirclePrototype("Tiny Red", 30, Color.RED));
-        registry.register("Blue Burst", new CirclePrototype("Blue Burst", 70, new Color(30,144,255)));
-        registry.register("Mint Medium", new CirclePrototype("Mint Medium", 50, new Color(152,251,152)));
+            @Override public void sceneReset() {
+                if (simulation != null) stopSimulation(false);
+            }
+        });
+
+        // default prototypes, unless the last session was restored
+        if (autosave == null || !autosave.restoredState()) {
+            registry.register("Tiny Red", new CirclePrototype("Tiny Red", 30, Color.RED));
+            registry.register("Blue Burst", new CirclePrototype("Blue Burst", 70, new Color(30,144,255)));
+            registry.register("Mint Medium", new CirclePrototype("Mint Medium", 50, new Color(152,251,152)));
+        }
 
+        catalog = new PrototypeCatalog(registry);
         buildUI();
         log("✨ App started. Prototype pattern ready — create by cloning prototypes!");
+        if (autosave != null) autosave.attach();
+        if (autosaveStatus != null) log(autosaveStatus);
+    }
+
+    /**
+     * Restores the previous session from the autosave journal and returns the journal, or
+     * null when autosave is off or the journal cannot be read (its files are left alone).
+     */
+    private SceneJournal openAutosave() {
+        if (!Boolean.parseBoolean(System.getProperty("autosave", "true"))) return null;
+        String dir = System.getProperty("autosave.dir",
+                Paths.get(System.getProperty("user.home"), ".prototype-drawing", "autosave").toString());
+        try {
+            SceneJournal journal = SceneJournal.open(Paths.get(dir), shapeManager, registry,
+                    Long.getLong("autosave.commitMillis", 50), Long.getLong("autosave.compactBytes", 16L << 20));
+            if (journal.restoredState()) {
+                autosaveStatus = "♻️ Restored last session: " + shapeManager.size() + " shapes, " + registry.keys().size()
+                        + " prototypes (" + journal.getReplayedRecords() + " journal records replayed"
+                        + (journal.getDroppedBytes() > 0 ? ", " + journal.getDroppedBytes() + " bytes of a torn write dropped" : "") + ").";
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            shapeManager.clear();
+            registry.clear();
+            autosaveStatus = "⚠️ Autosave off, could not restore " + dir + ": " + e.getMessage();
+            return null;
+        }
     }
 
     private void buildUI() {
         frame = new JFrame("🎨 Prototype Drawing Studio — Clone • Edit • Delight");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override public void windowClosing(WindowEvent e) {
+                if (simulation != null) stopSimulation(true);
+                if (autosave == null) return;
+                try {
+                    autosave.close(); // commit the last few edits before exiting
+                } catch (IOException | InterruptedException ex) {
+                    System.err.println("Autosave not flushed: " + ex.getMessage());
+                }
+            }
+        });
         frame.setSize(1100, 700);
         frame.setLocationRelativeTo(null);
         frame.setLayout(new BorderLayout(10, 10));
@@ -361,13 +1716,37 @@ public class DrawingPrototypeApp {
         left.setPreferredSize(new Dimension(260, 0));
 
         JLabel leftTitle = new JLabel("<html><h2>📦 Prototypes</h2></html>");
-        left.add(leftTitle, BorderLayout.NORTH);
-
-        prototypeListModel = new DefaultListModel<>();
-        for (String k : registry.keys()) prototypeListModel.addElement(k);
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText("Search prototypes by name prefix or fuzzy match");
+        JPanel leftTop = new JPanel(new BorderLayout(4, 4));
+        leftTop.add(leftTitle, BorderLayout.NORTH);
+        leftTop.add(searchField, BorderLayout.SOUTH);
+        left.add(leftTop, BorderLayout.NORTH);
+
+        prototypeListModel = catalog.newView();
+        // search once typing pauses rather than per keystroke; a big library takes a few ms a pass
+        javax.swing.Timer searchDelay = new javax.swing.Timer(150, e -> prototypeListModel.setFilter(searchField.getText()));
+        searchDelay.setRepeats(false);
+        searchField.addActionListener(e -> {
+            searchDelay.stop();
+            prototypeListModel.setFilter(searchField.getText());
+        });
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { searchDelay.restart(); }
+            @Override public void removeUpdate(DocumentEvent e) { searchDelay.restart(); }
+            @Override public void changedUpdate(DocumentEvent e) { }
+        });
 
         prototypeJList = new JList<>(prototypeListModel);
         prototypeJList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // fixed row size, so a long library list never measures every row
+        prototypeJList.setPrototypeCellValue("📚 A fairly long prototype name");
+        prototypeJList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focus) {
+                boolean fromLibrary = value instanceof String && !catalog.isRegistered((String) value);
+                return super.getListCellRendererComponent(list, fromLibrary ? "📚 " + value : value, index, selected, focus);
+            }
+        });
         JScrollPane protoScroll = new JScrollPane(prototypeJList);
         left.add(protoScroll, BorderLayout.CENTER);
 
@@ -376,17 +1755,39 @@ public class DrawingPrototypeApp {
         JButton btnNew = new JButton("➕ New Prototype");
         JButton btnEdit = new JButton("✏️ Edit Prototype");
         JButton btnRemove = new JButton("🗑 Remove Prototype");
+        JButton btnSave = new JButton("💾 Save Scene");
+        JButton btnOpen = new JButton("📂 Open Scene");
+        JButton btnExport = new JButton("🖼 Export PNG");
+        JButton btnStream = new JButton("🌊 Stream Clones");
+        JButton btnPack = new JButton("📦 Pack Clones");
+        btnTrace = new JButton("⏺ Record Trace");
+        btnSimulate = new JButton("▶ Simulate");
+        JButton btnLibrary = new JButton("📚 Library…");
+        avoidOverlap = new JCheckBox("🧩 Place without overlap", true);
+        JCheckBox showHud = new JCheckBox("📈 Metrics HUD (F3)");
 
         protoButtons.add(btnClone);
         protoButtons.add(btnNew);
         protoButtons.add(btnEdit);
         protoButtons.add(btnRemove);
+        protoButtons.add(btnLibrary);
+        protoButtons.add(btnSave);
+        protoButtons.add(btnOpen);
+        protoButtons.add(btnExport);
+        protoButtons.add(btnStream);
+        protoButtons.add(btnPack);
+        protoButtons.add(btnTrace);
+        protoButtons.add(btnSimulate);
+        protoButtons.add(avoidOverlap);
+        protoButtons.add(showHud);
         left.add(protoButtons, BorderLayout.SOUTH);
 
         // CENTER - Canvas
         canvas = new CanvasPanel(shapeManager, this::log);
         canvas.setBackground(new Color(25, 28, 35));
         canvas.setBorder(BorderFactory.createLineBorder(new Color(60, 63, 68), 2));
+        showHud.addActionListener(e -> canvas.setHudVisible(showHud.isSelected()));
+        canvas.addPropertyChangeListener("hudVisible", e -> showHud.setSelected(canvas.isHudVisible()));
 
         // RIGHT - Inspector / Controls
         JPanel right = new JPanel(new BorderLayout(8, 8));
@@ -403,7 +1804,9 @@ public class DrawingPrototypeApp {
 
         // Prototype clone quick combo
         JPanel quickPanel = new JPanel(new BorderLayout(6, 6));
-        prototypeCombo = new JComboBox<>(registry.keys().toArray(new String[0]));
+        prototypeCombo = new JComboBox<>(catalog.newView());
+        prototypeCombo.setPrototypeDisplayValue("A fairly long prototype name");
+        if (prototypeCombo.getItemCount() > 0) prototypeCombo.setSelectedIndex(0);
         prototypeCombo.setEditable(false);
         quickPanel.add(new JLabel("Quick clone:"), BorderLayout.WEST);
         quickPanel.add(prototypeCombo, BorderLayout.CENTER);
@@ -440,6 +1843,17 @@ public class DrawingPrototypeApp {
         JButton updateBtn = new JButton("Apply to Selected");
         updateBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
         inspector.add(updateBtn);
+        inspector.add(Box.createVerticalStrut(12));
+
+        JPanel historyPanel = new JPanel(new GridLayout(1, 3, 6, 6));
+        JButton undoBtn = new JButton("↶ Undo");
+        JButton redoBtn = new JButton("↷ Redo");
+        JButton undoStepsBtn = new JButton("⏮ Steps…");
+        undoStepsBtn.setToolTipText("Undo several steps at once");
+        historyPanel.add(undoBtn);
+        historyPanel.add(redoBtn);
+        historyPanel.add(undoStepsBtn);
+        inspector.add(historyPanel);
 
         inspector.add(Box.createVerticalGlue());
 
@@ -449,6 +1863,7 @@ public class DrawingPrototypeApp {
         logArea = new JTextArea(6, 10);
         logArea.setEditable(false);
         logArea.setLineWrap(true);
+        activityLog.attach(logArea, 100);
         JScrollPane logScroll = new JScrollPane(logArea);
         bottom.add(logScroll, BorderLayout.CENTER);
 
@@ -461,23 +1876,21 @@ public class DrawingPrototypeApp {
         // Event wiring ------------------------------------------------
 
         btnClone.addActionListener(e -> {
-            String key = prototypeJList.getSelectedValue();
+            String key = selectedPrototype();
             if (key == null) {
                 JOptionPane.showMessageDialog(frame, "Select a prototype to clone.", "No selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            CircleShape created = registry.spawnShape(key, canvas.getWidth(), canvas.getHeight());
+            CircleShape created = spawn(key);
             shapeManager.addShape(created);
-            canvas.repaint();
             log("🪄 Cloned prototype '" + key + "' → placed on canvas.");
         });
 
         quickCloneBtn.addActionListener(e -> {
             String key = (String) prototypeCombo.getSelectedItem();
-            if (key == null) return;
-            CircleShape created = registry.spawnShape(key, canvas.getWidth(), canvas.getHeight());
+            if (key == null || !catalog.ensureRegistered(key)) return;
+            CircleShape created = spawn(key);
             shapeManager.addShape(created);
-            canvas.repaint();
             log("▶ Quick clone from '" + key + "' added.");
         });
 
@@ -487,14 +1900,12 @@ public class DrawingPrototypeApp {
             CirclePrototype proto = dialog.getCreatedPrototype();
             if (proto != null) {
                 registry.register(proto.getName(), proto);
-                prototypeListModel.addElement(proto.getName());
-                prototypeCombo.addItem(proto.getName());
                 log("➕ New prototype '" + proto.getName() + "' registered.");
             }
         });
 
         btnEdit.addActionListener(e -> {
-            String key = prototypeJList.getSelectedValue();
+            String key = selectedPrototype();
             if (key == null) {
                 JOptionPane.showMessageDialog(frame, "Pick a prototype from the list to edit.", "No selection", JOptionPane.WARNING_MESSAGE);
                 return;
@@ -504,11 +1915,13 @@ public class DrawingPrototypeApp {
             dialog.setVisible(true);
             CirclePrototype updated = dialog.getCreatedPrototype();
             if (updated != null) {
-                registry.register(updated.getName(), updated); // overwrite or rename
-                prototypeListModel.clear();
-                for (String k : registry.keys()) prototypeListModel.addElement(k);
-                prototypeCombo.removeAllItems();
-                for (String k : registry.keys()) prototypeCombo.addItem(k);
+                String name = updated.getName();
+                if (!name.equals(key) && registry.contains(name)) {
+                    JOptionPane.showMessageDialog(frame, "A prototype named '" + name + "' already exists.", "Name taken", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                registry.rename(key, name, updated); // same key: plain overwrite
+                prototypeJList.setSelectedValue(name, true);
                 log("✏️ Prototype '" + key + "' updated → '" + updated.getName() + "'.");
             }
         });
@@ -516,15 +1929,256 @@ public class DrawingPrototypeApp {
         btnRemove.addActionListener(e -> {
             String key = prototypeJList.getSelectedValue();
             if (key == null) return;
+            if (!catalog.isRegistered(key)) {
+                JOptionPane.showMessageDialog(frame, "'" + key + "' is in the read-only library; only registered prototypes can be removed.", "Library prototype", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
             int ok = JOptionPane.showConfirmDialog(frame, "Remove prototype '" + key + "'?","Confirm", JOptionPane.YES_NO_OPTION);
             if (ok == JOptionPane.YES_OPTION) {
                 registry.remove(key);
-                prototypeListModel.removeElement(key);
-                prototypeCombo.removeItem(key);
                 log("🗑 Prototype '" + key + "' removed.");
             }
         });
 
+        JPopupMenu libraryMenu = new JPopupMenu();
+        JMenuItem openLibrary = new JMenuItem("Open Library…");
+        JMenuItem saveLibrary = new JMenuItem("Save Prototypes as Library…");
+        JMenuItem closeLibrary = new JMenuItem("Close Library");
+        libraryMenu.add(openLibrary);
+        libraryMenu.add(saveLibrary);
+        libraryMenu.add(closeLibrary);
+        btnLibrary.addActionListener(e -> {
+            closeLibrary.setEnabled(catalog.getLibrary() != null);
+            libraryMenu.show(btnLibrary, 0, btnLibrary.getHeight());
+        });
+
+        openLibrary.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            try {
+                PrototypeLibrary library = PrototypeLibrary.open(chooser.getSelectedFile().toPath());
+                catalog.setLibrary(library);
+                log("📚 Library opened: " + library.size() + " prototypes, registered on first use.");
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(frame, "Could not open library: " + ex.getMessage(), "Open failed", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        saveLibrary.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            try {
+                PrototypeLibrary.write(chooser.getSelectedFile().toPath(), registry);
+                log("📚 Library saved: " + registry.keys().size() + " prototypes.");
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(frame, "Could not save library: " + ex.getMessage(), "Save failed", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        closeLibrary.addActionListener(e -> {
+            catalog.setLibrary(null);
+            log("📚 Library closed; prototypes taken from it stay registered.");
+        });
+
+        btnSave.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            try {
+                SceneFile.save(chooser.getSelectedFile().toPath(), shapeManager, registry);
+                log("💾 Scene saved: " + shapeManager.size() + " shapes, " + registry.keys().size() + " prototypes.");
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(frame, "Could not save scene: " + ex.getMessage(), "Save failed", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        btnOpen.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            endRecordingBefore("opening a scene");
+            try {
+                SceneFile.load(chooser.getSelectedFile().toPath(), shapeManager, registry);
+                undoJournal.clear(); // the loaded shapes are the new baseline, not an undoable clone
+                log("📂 Scene opened: " + shapeManager.size() + " shapes, " + registry.keys().size() + " prototypes.");
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(frame, "Could not open scene: " + ex.getMessage(), "Open failed", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        btnExport.addActionListener(e -> {
+            String factor = JOptionPane.showInputDialog(frame, "Scale factor for the exported canvas:", "4");
+            if (factor == null) return;
+            int scale;
+            try {
+                scale = Integer.parseInt(factor.trim());
+            } catch (NumberFormatException ex) {
+                scale = 0;
+            }
+            if (scale < 1 || scale > 64) {
+                JOptionPane.showMessageDialog(frame, "Scale must be a whole number from 1 to 64.", "Invalid scale", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+            Path file = chooser.getSelectedFile().toPath();
+            int outW = canvas.getWidth() * scale, outH = canvas.getHeight() * scale;
+            Rectangle world = canvas.getVisibleWorld();
+            // only the shapes in view are copied here; indexing and rendering run on a worker,
+            // and the scene can be edited meanwhile without touching the export
+            TiledExporter.Snapshot snapshot = TiledExporter.Snapshot.of(shapeManager, world);
+            ProgressMonitor monitor = new ProgressMonitor(frame, "Exporting " + outW + "x" + outH + " PNG…", null, 0, 100);
+            SwingWorker<Void, Void> export = new SwingWorker<Void, Void>() {
+                @Override protected Void doInBackground() throws IOException {
+                    new TiledExporter(snapshot.toScene()).export(world, outW, outH, file, (done, total) -> setProgress(done * 100 / total));
+                    return null;
+                }
+
+                @Override protected void done() {
+                    monitor.close();
+                    try {
+                        get();
+                        log("🖼 Exported canvas at " + outW + "x" + outH + ".");
+                    } catch (CancellationException ex) {
+                        log("🖼 Export cancelled.");
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ex) {
+                        JOptionPane.showMessageDialog(frame, "Could not export: " + ex.getCause().getMessage(), "Export failed", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            };
+            export.addPropertyChangeListener(ev -> {
+                if ("progress".equals(ev.getPropertyName())) monitor.setProgress(export.getProgress());
+            });
+            // progress only arrives per band, so Cancel is polled; the exporter stops at the next band and deletes the file
+            javax.swing.Timer cancelWatch = new javax.swing.Timer(100, ev -> {
+                if (monitor.isCanceled() && !export.isDone()) export.cancel(true);
+                if (export.isDone()) ((javax.swing.Timer) ev.getSource()).stop();
+            });
+            cancelWatch.start();
+            export.execute();
+            log("🖼 Exporting " + snapshot.size() + " shapes at " + outW + "x" + outH + " in the background…");
+        });
+
+        btnStream.addActionListener(e -> {
+            String key = selectedPrototype();
+            if (key == null) {
+                JOptionPane.showMessageDialog(frame, "Select a prototype to stream clones of.", "No selection", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            String input = JOptionPane.showInputDialog(frame, "Number of clones to stream in the background:", "100000");
+            if (input == null) return;
+            int count;
+            try {
+                count = Integer.parseInt(input.trim());
+            } catch (NumberFormatException ex) {
+                count = -1;
+            }
+            if (count < 1) {
+                JOptionPane.showMessageDialog(frame, "Enter a positive whole number.", "Invalid count", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            endRecordingBefore("streaming clones");
+            // read everything the producer needs here; the registry and canvas belong to the EDT
+            CirclePrototype p = registry.getPrototypeForEdit(key);
+            String label = p.spawnAt(0, 0).getLabel();
+            Rectangle view = canvas.getVisibleWorld();
+            int r = p.getRadius(), w = Math.max(2*r + 1, view.width), h = Math.max(2*r + 1, view.height);
+            Color color = p.getColor();
+            int total = count;
+            Thread producer = new Thread(() -> {
+                SplittableRandom rnd = new SplittableRandom();
+                long t0 = System.nanoTime();
+                try {
+                    for (int done = 0; done < total; ) {
+                        SceneEditQueue.Batch batch = editQueue.newBatch();
+                        for (int n = Math.min(4096, total - done); n > 0; n--, done++) {
+                            batch.add(label, view.x + r + rnd.nextInt(w - 2*r), view.y + r + rnd.nextInt(h - 2*r), r, color);
+                        }
+                        editQueue.commit(batch);
+                    }
+                    log("🌊 Streamed " + total + " clones of '" + key + "' in " + (System.nanoTime() - t0) / 1_000_000 + " ms.");
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    SwingUtilities.invokeLater(() -> runningStreams--);
+                }
+            }, "clone-stream");
+            runningStreams++;
+            producer.setDaemon(true);
+            producer.start();
+            log("🌊 Streaming " + total + " clones of '" + key + "'…");
+        });
+
+        btnTrace.addActionListener(e -> {
+            if (recorder == null) {
+                if (simulation != null || runningStreams > 0 || editQueue.getCommittedBatches() != editQueue.getAppliedBatches()) {
+                    JOptionPane.showMessageDialog(frame, "Wait for the simulation or clone stream to finish; traces cannot replay them.", "Busy", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                try {
+                    recorder = new InputTrace.Recorder(canvas, shapeManager, registry);
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(frame, "Could not start recording: " + ex.getMessage(), "Trace failed", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                recorder.start();
+                btnTrace.setText("⏹ Stop Recording");
+                log("⏺ Recording input trace…");
+                return;
+            }
+            stopRecording();
+        });
+        canvas.setViewKeyListener(() -> {
+            if (recorder != null) recorder.view(canvas.getScale(), canvas.getPanX(), canvas.getPanY());
+        });
+
+        btnSimulate.addActionListener(e -> {
+            if (simulation != null) {
+                stopSimulation(true);
+                return;
+            }
+            if (shapeManager.size() == 0) {
+                JOptionPane.showMessageDialog(frame, "Place some shapes to simulate first.", "Empty scene", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            endRecordingBefore("simulating");
+            // the walls: what is on screen, grown to take in the whole scene
+            Rectangle bounds = canvas.getVisibleWorld().union(shapeManager.extent());
+            int hz = Integer.getInteger("sim.hz", 120);
+            simulation = new ParticleSimulation(shapeManager.getStore(), bounds, hz, ThreadLocalRandom.current().nextLong());
+            canvas.setSimulation(simulation);
+            simulation.start(true);
+            btnSimulate.setText("⏹ Stop Simulation");
+            log(String.format("▶ Simulating %,d shapes at %d steps/s; pan and zoom still work.", simulation.size(), hz));
+        });
+
+        btnPack.addActionListener(e -> {
+            String key = selectedPrototype();
+            if (key == null) {
+                JOptionPane.showMessageDialog(frame, "Select a prototype to pack clones of.", "No selection", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            String input = JOptionPane.showInputDialog(frame, "Number of clones to pack into the visible canvas:", "500");
+            if (input == null) return;
+            int count;
+            try {
+                count = Integer.parseInt(input.trim());
+            } catch (NumberFormatException ex) {
+                count = -1;
+            }
+            if (count < 1) {
+                JOptionPane.showMessageDialog(frame, "Enter a positive whole number.", "Invalid count", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            Rectangle area = canvas.getVisibleWorld();
+            long seed = System.nanoTime();
+            if (recorder != null) recorder.pack(key, count, seed, area);
+            ShapeBatch batch = registry.packClones(key, count, area, placement, seed);
+            shapeManager.addShapes(batch);
+            if (batch.size() < count) log("📦 Packed " + batch.size() + " of " + count + " clones of '" + key + "' — no more free room was found.");
+            else log("📦 Packed " + count + " clones of '" + key + "'.");
+        });
+
         // Canvas selection callback
         canvas.setSelectionListener(shape -> {
             if (shape == null) {
@@ -549,9 +2203,9 @@ public class DrawingPrototypeApp {
             }
             Color chosen = JColorChooser.showDialog(frame, "Choose Color", s.getColor());
             if (chosen != null) {
+                if (recorder != null) recorder.recolor(s.getId(), chosen);
                 s.setColor(chosen);
                 colorBtn.setBackground(chosen);
-                canvas.repaint();
                 log("🎨 Changed color of selected shape.");
             }
         });
@@ -559,9 +2213,10 @@ public class DrawingPrototypeApp {
         // Size slider live update
         sizeSlider.addChangeListener(e -> {
             CircleShape s = shapeManager.getSelected();
-            if (s != null && !sizeSlider.getValueIsAdjusting()) {
+            // selecting a shape moves the slider too; only a real change should touch the shape
+            if (s != null && !sizeSlider.getValueIsAdjusting() && s.getRadius() != sizeSlider.getValue()) {
+                if (recorder != null) recorder.resize(s.getId(), sizeSlider.getValue());
                 s.setRadius(sizeSlider.getValue());
-                canvas.repaint();
                 log("🔍 Size adjusted to " + s.getRadius());
             }
         });
@@ -573,20 +2228,71 @@ public class DrawingPrototypeApp {
                 JOptionPane.showMessageDialog(frame, "Select a shape on the canvas first.", "No shape", JOptionPane.WARNING_MESSAGE);
                 return;
             }
+            if (recorder != null) recorder.relabel(s.getId(), labelField.getText());
             s.setLabel(labelField.getText());
-            canvas.repaint();
             log("✏️ Label applied: " + labelField.getText());
         });
 
+        // Undo / redo, also on Ctrl+Z and Ctrl+Y
+        Action undoAction = new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (undoJournal.undo()) {
+                    if (recorder != null) recorder.undo();
+                    shapeManager.refreshSelection();
+                    log("↶ Undone.");
+                }
+            }
+        };
+        Action redoAction = new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (undoJournal.redo()) {
+                    if (recorder != null) recorder.redo();
+                    shapeManager.refreshSelection();
+                    log("↷ Redone.");
+                }
+            }
+        };
+        undoBtn.addActionListener(undoAction);
+        redoBtn.addActionListener(redoAction);
+        undoStepsBtn.addActionListener(e -> {
+            int max = undoJournal.undoableSteps();
+            if (max == 0) {
+                log("⚠️ Nothing to undo.");
+                return;
+            }
+            String in = JOptionPane.showInputDialog(frame, "Steps to undo (1-" + max + "):", Math.min(10, max));
+            if (in == null) return;
+            int n;
+            try {
+                n = Math.min(max, Integer.parseInt(in.trim()));
+            } catch (NumberFormatException ex) {
+                log("⚠️ Not a number: " + in);
+                return;
+            }
+            if (n < 1) return;
+            // a snapshot restore clears the scene, so keep the selection by id
+            int[] selected = shapeManager.selectedIds();
+            int undone = undoJournal.undo(n);
+            if (recorder != null) for (int i = 0; i < undone; i++) recorder.undo();
+            int size = shapeManager.size();
+            shapeManager.select(Arrays.stream(selected).filter(id -> id < size).toArray(), false);
+            shapeManager.refreshSelection();
+            log("⏮ Undone " + undone + " steps.");
+        });
+        JRootPane root = frame.getRootPane();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("control Z"), "undo");
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("control Y"), "redo");
+        root.getActionMap().put("undo", undoAction);
+        root.getActionMap().put("redo", redoAction);
+
         // Double-click on a prototype list to quick-clone
         prototypeJList.addMouseListener(new MouseAdapter() {
             @Override public void mouseClicked(MouseEvent e) {
                 if (e.getClickCount() == 2) {
-                    String key = prototypeJList.getSelectedValue();
+                    String key = selectedPrototype();
                     if (key != null) {
-                        CircleShape created = registry.spawnShape(key, canvas.getWidth(), canvas.getHeight());
+                        CircleShape created = spawn(key);
                         shapeManager.addShape(created);
-                        canvas.repaint();
                         log("✨ Double-click clone '" + key + "' created.");
                     }
                 }
@@ -596,13 +2302,85 @@ public class DrawingPrototypeApp {
         frame.setVisible(true);
     }
 
-    private void log(String message) {
-        if (logArea != null) {
-            logArea.append(message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        } else {
-            System.out.println(message);
+    /**
+     * A clone of the prototype at a free spot when overlap avoidance is on, else the classic
+     * random spot. Callers add it right away, so a running trace records it as placed.
+     */
+    private CircleShape spawn(String key) {
+        CircleShape s = avoidOverlap.isSelected()
+                ? registry.spawnShape(key, canvas.getVisibleWorld(), placement)
+                : registry.spawnShape(key, canvas.getVisibleWorld());
+        if (recorder != null) recorder.clone(key, s.getX(), s.getY());
+        return s;
+    }
+
+    /**
+     * The prototype picked in the list, or null. A library entry is registered first, so
+     * callers can use the registry as usual.
+     */
+    private String selectedPrototype() {
+        String key = prototypeJList.getSelectedValue();
+        if (key == null || catalog.isRegistered(key)) return key;
+        if (!catalog.ensureRegistered(key)) return null;
+        prototypeJList.setSelectedValue(key, true); // it now sits with the registered prototypes
+        log("📚 Prototype '" + key + "' registered from the library.");
+        return key;
+    }
+
+    /** Stops recording and offers to save the trace. */
+    private void stopRecording() {
+        InputTrace.Recorder done = recorder;
+        recorder = null;
+        done.stop();
+        btnTrace.setText("⏺ Record Trace");
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            log("⏹ Input trace discarded.");
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(chooser.getSelectedFile().toPath()))) {
+            done.finish(out);
+            log("⏹ Input trace saved: " + done.getRecords() + " records. Replay with TraceReplay.");
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Could not save trace: " + ex.getMessage(), "Trace failed", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /** Ends a running recording before an action a trace cannot replay, so the trace stays exact. */
+    private void endRecordingBefore(String action) {
+        if (recorder == null) return;
+        log("⏹ Recording stopped before " + action + ", which traces cannot replay.");
+        stopRecording();
+    }
+
+    /**
+     * Stops the running simulation. With keep, every shape moves to where the simulation
+     * left it, as one undo step; without, the scene stays as it was.
+     */
+    private void stopSimulation(boolean keep) {
+        ParticleSimulation sim = simulation;
+        simulation = null;
+        sim.close();
+        canvas.setSimulation(null);
+        btnSimulate.setText("▶ Simulate");
+        String stats = String.format("%,d steps, %.0f steps/s, step p99 %.2f ms",
+                sim.getSteps(), sim.getStepsPerSecond(), sim.getStepTimes().percentile(0.99) / 1e6);
+        if (!keep) {
+            log("⏹ Simulation stopped because the scene changed (" + stats + ").");
+            return;
         }
+        int[] xs = new int[sim.size()], ys = new int[sim.size()];
+        sim.copyPositions(xs, ys);
+        shapeManager.beginGesture();
+        shapeManager.moveTo(xs, ys);
+        shapeManager.endGesture();
+        log("⏹ Simulation stopped (" + stats + "); shapes stay where it left them.");
+    }
+
+    /** Safe from any thread; the log view catches up on its next flush tick. */
+    private void log(String message) {
+        activityLog.append(message);
+        if (logArea == null) System.out.println(message);
     }
 }
 
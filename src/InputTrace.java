@@ -0,0 +1,396 @@
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded input session, replayed by TraceReplay. A trace starts with the scene and
+ * viewport as they were when recording began, followed by the canvas mouse events and
+ * the app actions that change the scene, the prototypes or the viewport without the
+ * mouse, each stamped with the time since the previous record. Clones are stored with
+ * the spot they landed on and packs with their seed, so a replay reproduces the session
+ * exactly. Actions whose outcome depends on timing or on files (streaming clones, opening
+ * a scene, simulating) cannot be replayed; the app ends the recording before running one.
+ *
+ * <pre>
+ * header   int magic "PTRC", int version, int canvas width, int canvas height,
+ *          double zoom, int pan x, int pan y, int scene length + a SceneFile image
+ * records  byte type, varint microseconds since the previous record, then
+ *          MOUSE   varint id - MOUSE_FIRST, zigzag x, zigzag y, varint modifiersEx,
+ *                  byte button, byte click count
+ *          WHEEL   zigzag x, zigzag y, varint modifiersEx, float precise rotation
+ *          CLONE   UTF prototype key, zigzag x, zigzag y
+ *          UNDO, REDO  no payload
+ *          RECOLOR varint shape id, int ARGB
+ *          RESIZE  varint shape id, varint radius
+ *          RELABEL varint shape id, UTF label
+ *          PROTOTYPE  UTF key, UTF name, varint radius, int ARGB
+ *          RENAME  UTF old key, then as PROTOTYPE
+ *          REMOVE  UTF key
+ *          PACK    UTF prototype key, varint count, long seed, zigzag x, zigzag y,
+ *                  varint width, varint height of the area packed
+ *          VIEW    double zoom, zigzag pan x, zigzag pan y
+ * </pre>
+ * Version 1 traces hold only the record types up to REDO and still read.
+ */
+final class InputTrace {
+    static final int MAGIC = 0x50545243; // "PTRC"
+    static final int VERSION = 2;
+    static final byte MOUSE = 0, WHEEL = 1, CLONE = 2, UNDO = 3, REDO = 4,
+            RECOLOR = 5, RESIZE = 6, RELABEL = 7, PROTOTYPE = 8, RENAME = 9, REMOVE = 10, PACK = 11, VIEW = 12;
+
+    final int width, height;
+    final double scale;
+    final int panX, panY;
+    final byte[] scene;
+    final List<Event> events;
+
+    private InputTrace(int width, int height, double scale, int panX, int panY, byte[] scene, List<Event> events) {
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        this.panX = panX;
+        this.panY = panY;
+        this.scene = scene;
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    /** One recorded input; fields a type does not use are zero or null. */
+    static final class Event {
+        byte type;
+        long atNanos; // since recording started
+        int id, x, y, modifiers, button, clicks;
+        int width, height, radius, count;
+        double rotation, scale;
+        long seed;
+        Color color;
+        String key, oldKey, name, label;
+    }
+
+    static InputTrace read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an input trace: " + file);
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported trace version " + version + " in " + file);
+            int width = in.readInt(), height = in.readInt();
+            double scale = in.readDouble();
+            int panX = in.readInt(), panY = in.readInt();
+            byte[] scene = new byte[in.readInt()];
+            in.readFully(scene);
+            List<Event> events = new ArrayList<>();
+            long at = 0;
+            for (int type; (type = in.read()) >= 0; ) {
+                Event e = new Event();
+                e.type = (byte) type;
+                at += readVarint(in) * 1000;
+                e.atNanos = at;
+                switch (e.type) {
+                    case MOUSE:
+                        e.id = MouseEvent.MOUSE_FIRST + (int) readVarint(in);
+                        e.x = readZigzag(in);
+                        e.y = readZigzag(in);
+                        e.modifiers = (int) readVarint(in);
+                        e.button = in.readByte();
+                        e.clicks = in.readByte();
+                        break;
+                    case WHEEL:
+                        e.x = readZigzag(in);
+                        e.y = readZigzag(in);
+                        e.modifiers = (int) readVarint(in);
+                        e.rotation = in.readFloat();
+                        break;
+                    case CLONE:
+                        e.key = in.readUTF();
+                        e.x = readZigzag(in);
+                        e.y = readZigzag(in);
+                        break;
+                    case UNDO:
+                    case REDO:
+                        break;
+                    case RECOLOR:
+                        e.id = (int) readVarint(in);
+                        e.color = new Color(in.readInt(), true);
+                        break;
+                    case RESIZE:
+                        e.id = (int) readVarint(in);
+                        e.radius = (int) readVarint(in);
+                        break;
+                    case RELABEL:
+                        e.id = (int) readVarint(in);
+                        e.label = in.readUTF();
+                        break;
+                    case PROTOTYPE:
+                        readPrototype(in, e);
+                        break;
+                    case RENAME:
+                        e.oldKey = in.readUTF();
+                        readPrototype(in, e);
+                        break;
+                    case REMOVE:
+                        e.key = in.readUTF();
+                        break;
+                    case PACK:
+                        e.key = in.readUTF();
+                        e.count = (int) readVarint(in);
+                        e.seed = in.readLong();
+                        e.x = readZigzag(in);
+                        e.y = readZigzag(in);
+                        e.width = (int) readVarint(in);
+                        e.height = (int) readVarint(in);
+                        break;
+                    case VIEW:
+                        e.scale = in.readDouble();
+                        e.x = readZigzag(in);
+                        e.y = readZigzag(in);
+                        break;
+                    default:
+                        throw new IOException("Corrupt trace record " + type + " in " + file);
+                }
+                events.add(e);
+            }
+            return new InputTrace(width, height, scale, panX, panY, scene, events);
+        } catch (EOFException e) {
+            throw new IOException("Truncated trace: " + file, e);
+        }
+    }
+
+    private static void readPrototype(DataInputStream in, Event e) throws IOException {
+        e.key = in.readUTF();
+        e.name = in.readUTF();
+        e.radius = (int) readVarint(in);
+        e.color = new Color(in.readInt(), true);
+    }
+
+    /**
+     * Records a session on the EDT: attach it to the canvas and registry with start(),
+     * report the app's other actions as they happen, then stop() and finish() to write the
+     * trace. Records are kept in memory in their compact encoding, a few bytes per mouse
+     * event.
+     */
+    static final class Recorder extends MouseAdapter implements PrototypeListener {
+        private final CanvasPanel canvas;
+        private final PrototypeRegistry registry;
+        private final byte[] header;
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream(1 << 16);
+        private final DataOutputStream out = new DataOutputStream(buf);
+        private long last;
+        private int records;
+
+        /** Captures the current scene and viewport as the trace's starting point. */
+        Recorder(CanvasPanel canvas, ShapeManager shapes, PrototypeRegistry registry) throws IOException {
+            this.canvas = canvas;
+            this.registry = registry;
+            Path tmp = Files.createTempFile("trace", ".scene");
+            try {
+                SceneFile.save(tmp, shapes, registry);
+                byte[] scene = Files.readAllBytes(tmp);
+                ByteArrayOutputStream head = new ByteArrayOutputStream(scene.length + 40);
+                DataOutputStream h = new DataOutputStream(head);
+                h.writeInt(MAGIC);
+                h.writeInt(VERSION);
+                h.writeInt(canvas.getWidth());
+                h.writeInt(canvas.getHeight());
+                h.writeDouble(canvas.getScale());
+                h.writeInt(canvas.getPanX());
+                h.writeInt(canvas.getPanY());
+                h.writeInt(scene.length);
+                h.write(scene);
+                header = head.toByteArray();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        void start() {
+            last = System.nanoTime();
+            canvas.addMouseListener(this);
+            canvas.addMouseMotionListener(this);
+            canvas.addMouseWheelListener(this);
+            registry.addListener(this);
+        }
+
+        /** Detaches from the canvas and registry; later actions are not recorded. */
+        void stop() {
+            canvas.removeMouseListener(this);
+            canvas.removeMouseMotionListener(this);
+            canvas.removeMouseWheelListener(this);
+            registry.removeListener(this);
+        }
+
+        int getRecords() { return records; }
+
+        @Override public void mousePressed(MouseEvent e) { mouse(e); }
+        @Override public void mouseReleased(MouseEvent e) { mouse(e); }
+        @Override public void mouseClicked(MouseEvent e) { mouse(e); }
+        @Override public void mouseDragged(MouseEvent e) { mouse(e); }
+        @Override public void mouseMoved(MouseEvent e) { mouse(e); }
+
+        @Override public void mouseWheelMoved(MouseWheelEvent e) {
+            begin(WHEEL);
+            writeZigzag(e.getX());
+            writeZigzag(e.getY());
+            writeVarint(e.getModifiersEx());
+            write(() -> out.writeFloat((float) e.getPreciseWheelRotation()));
+        }
+
+        private void mouse(MouseEvent e) {
+            begin(MOUSE);
+            writeVarint(e.getID() - MouseEvent.MOUSE_FIRST);
+            writeZigzag(e.getX());
+            writeZigzag(e.getY());
+            writeVarint(e.getModifiersEx());
+            write(() -> {
+                out.writeByte(e.getButton());
+                out.writeByte(e.getClickCount());
+            });
+        }
+
+        /** A clone of the prototype placed at (x, y) by a button rather than the mouse. */
+        void clone(String key, int x, int y) {
+            begin(CLONE);
+            write(() -> out.writeUTF(key));
+            writeZigzag(x);
+            writeZigzag(y);
+        }
+
+        void undo() { begin(UNDO); }
+
+        void redo() { begin(REDO); }
+
+        /** An inspector edit of one shape. */
+        void recolor(int id, Color color) {
+            begin(RECOLOR);
+            writeVarint(id);
+            write(() -> out.writeInt(color.getRGB()));
+        }
+
+        void resize(int id, int radius) {
+            begin(RESIZE);
+            writeVarint(id);
+            writeVarint(radius);
+        }
+
+        void relabel(int id, String label) {
+            begin(RELABEL);
+            writeVarint(id);
+            write(() -> out.writeUTF(label));
+        }
+
+        /** Clones packed into area; the seed makes the placement repeatable. */
+        void pack(String key, int count, long seed, Rectangle area) {
+            begin(PACK);
+            write(() -> {
+                out.writeUTF(key);
+                writeVarint(count);
+                out.writeLong(seed);
+            });
+            writeZigzag(area.x);
+            writeZigzag(area.y);
+            writeVarint(area.width);
+            writeVarint(area.height);
+        }
+
+        /** A viewport change the mouse records do not explain, such as a zoom shortcut. */
+        void view(double scale, int panX, int panY) {
+            begin(VIEW);
+            write(() -> out.writeDouble(scale));
+            writeZigzag(panX);
+            writeZigzag(panY);
+        }
+
+        @Override public void prototypeRegistered(String key, CirclePrototype proto) {
+            begin(PROTOTYPE);
+            prototype(key, proto);
+        }
+
+        @Override public void prototypeRenamed(String oldKey, String newKey, CirclePrototype proto) {
+            begin(RENAME);
+            write(() -> out.writeUTF(oldKey));
+            prototype(newKey, proto);
+        }
+
+        @Override public void prototypeRemoved(String key) {
+            begin(REMOVE);
+            write(() -> out.writeUTF(key));
+        }
+
+        private void prototype(String key, CirclePrototype proto) {
+            write(() -> {
+                out.writeUTF(key);
+                out.writeUTF(proto.name);
+            });
+            writeVarint(proto.getRadius());
+            write(() -> out.writeInt(proto.getColor().getRGB()));
+        }
+
+        /** Writes the trace; call stop() first. */
+        void finish(OutputStream target) throws IOException {
+            target.write(header);
+            buf.writeTo(target);
+            target.flush();
+        }
+
+        private void begin(byte type) {
+            long now = System.nanoTime();
+            long micros = (now - last) / 1000;
+            last += micros * 1000; // keep the remainder so rounding does not drift
+            records++;
+            buf.write(type);
+            writeVarint(micros);
+        }
+
+        private void writeVarint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                buf.write((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf.write((int) v);
+        }
+
+        private void writeZigzag(int v) {
+            writeVarint((v << 1 ^ v >> 31) & 0xFFFFFFFFL);
+        }
+
+        private void write(IoWrite w) {
+            try {
+                w.run();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // cannot happen writing to memory
+            }
+        }
+    }
+
+    private interface IoWrite {
+        void run() throws IOException;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readZigzag(InputStream in) throws IOException {
+        int v = (int) readVarint(in);
+        return v >>> 1 ^ -(v & 1);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram over nanoseconds with log-linear buckets: eight buckets per power of
+ * two, so any percentile is within 12.5% of the true value while the whole range from a
+ * nanosecond to minutes fits in a few hundred counters. Recording is one array increment
+ * and safe from any thread; readers see a consistent-enough view without locking.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 3, SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /** Records the time since start, a value from Metrics.start(); does nothing for 0. */
+    void stop(long start) {
+        if (start == 0) return;
+        long nanos = System.nanoTime() - start;
+        record(nanos);
+        Metrics.emit(this, nanos);
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+        return n;
+    }
+
+    /** Value at or below which the fraction p (0..1) of recordings lie, or 0 if empty. */
+    long percentile(double p) {
+        long total = count();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total)), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    }
+
+    private static int bucket(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        return (exp - SUB_BITS + 1) * SUB + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB) return bucket;
+        int exp = bucket / SUB + SUB_BITS - 1;
+        long base = 1L << exp, step = base >>> SUB_BITS;
+        return base + (bucket % SUB + 1) * step - 1;
+    }
+}
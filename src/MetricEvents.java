@@ -0,0 +1,62 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events committed by Metrics while a recording runs. Open the .jfr in
+ * JDK Mission Control or `jfr print --events drawing.* rec.jfr`. Durations are measured
+ * by Metrics rather than with begin()/end(), so they appear as the elapsed field.
+ */
+final class MetricEvents {
+    private MetricEvents() { }
+
+    static void timed(String operation, long nanos) {
+        TimedOperation e = new TimedOperation();
+        if (!e.isEnabled()) return;
+        e.operation = operation;
+        e.elapsed = nanos;
+        e.commit();
+    }
+
+    static void paint(long nanos, int shapes, int drawn, double scale, int clipWidth, int clipHeight) {
+        CanvasPaint e = new CanvasPaint();
+        if (!e.isEnabled()) return;
+        e.elapsed = nanos;
+        e.shapes = shapes;
+        e.drawn = drawn;
+        e.culled = shapes - drawn;
+        e.scale = scale;
+        e.clipWidth = clipWidth;
+        e.clipHeight = clipHeight;
+        e.commit();
+    }
+
+    @Name("drawing.TimedOperation")
+    @Label("Timed Operation")
+    @Category("Drawing App")
+    @Description("A paint, drag frame, pick or spawn")
+    @StackTrace(false)
+    static final class TimedOperation extends Event {
+        @Label("Operation") String operation;
+        @Label("Elapsed") @Timespan long elapsed;
+    }
+
+    @Name("drawing.CanvasPaint")
+    @Label("Canvas Paint")
+    @Category("Drawing App")
+    @Description("One canvas repaint with its culling counts")
+    @StackTrace(false)
+    static final class CanvasPaint extends Event {
+        @Label("Elapsed") @Timespan long elapsed;
+        @Label("Shapes") int shapes;
+        @Label("Drawn") int drawn;
+        @Label("Culled") int culled;
+        @Label("Zoom") double scale;
+        @Label("Clip Width") int clipWidth;
+        @Label("Clip Height") int clipHeight;
+    }
+}
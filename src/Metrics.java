@@ -0,0 +1,71 @@
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Timers for the interactive paths: canvas paints, drag frames, picking and spawning.
+ * Timing is off until the HUD is shown or a Flight Recorder recording is running; while
+ * off, start() is one volatile read and returns 0, which every stop() ignores, so the
+ * instrumented paths cost next to nothing. During a recording each timed call is also
+ * committed as a JFR event (see MetricEvents) for offline analysis.
+ *
+ *     long t = Metrics.start();
+ *     ...
+ *     Metrics.PICK.stop(t);
+ */
+final class Metrics {
+    static final LatencyHistogram PAINT = new LatencyHistogram("paint");
+    static final LatencyHistogram DRAG_FRAME = new LatencyHistogram("drag frame");
+    static final LatencyHistogram PICK = new LatencyHistogram("pick");
+    static final LatencyHistogram SPAWN = new LatencyHistogram("spawn");
+
+    private static volatile boolean hud;
+    private static volatile boolean recording;
+
+    static {
+        try {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override public void recorderInitialized(FlightRecorder recorder) { recordingStateChanged(null); }
+
+                @Override public void recordingStateChanged(Recording changed) {
+                    boolean running = false;
+                    for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+                        if (r.getState() == RecordingState.RUNNING) running = true;
+                    }
+                    recording = running;
+                }
+            });
+        } catch (LinkageError | SecurityException e) {
+            // no Flight Recorder in this runtime; the HUD still works
+        }
+    }
+
+    private Metrics() { }
+
+    /** A start stamp for LatencyHistogram.stop, or 0 when nothing is being measured. */
+    static long start() {
+        return hud || recording ? System.nanoTime() : 0;
+    }
+
+    static boolean isTiming() { return hud || recording; }
+
+    static boolean isRecording() { return recording; }
+
+    /** Turns HUD timing on or off; turning it on starts the histograms afresh. */
+    static void setHudEnabled(boolean on) {
+        if (on && !hud) {
+            PAINT.reset();
+            DRAG_FRAME.reset();
+            PICK.reset();
+            SPAWN.reset();
+        }
+        hud = on;
+    }
+
+    static boolean isHudEnabled() { return hud; }
+
+    static void emit(LatencyHistogram h, long nanos) {
+        if (recording) MetricEvents.timed(h.name, nanos);
+    }
+}
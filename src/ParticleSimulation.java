@@ -0,0 +1,494 @@
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves a snapshot of the scene's circles as particles: constant velocity, elastic
+ * collisions between circles (heavier by area) and bounces off the walls of a world
+ * rectangle, advanced in fixed time steps on a thread of its own.
+ *
+ * Each step bins the particles into a uniform grid at least one typical diameter wide
+ * (the broad phase), then every particle looks only at the 3x3 cells around it. The cell
+ * size follows the 99th percentile radius rather than the largest, so one huge circle
+ * cannot coarsen the grid for everyone; circles wider than half a cell are also binned
+ * into a coarse grid of their own, where the others look them up, while they themselves
+ * search every fine cell they overlap. The state is
+ * kept sorted by cell, re-sorted every step, so neighbours sit next to each other in
+ * memory and the nearly unchanged order makes the sort itself cheap. The passes run on a
+ * fork-join pool one thread smaller than the machine, so the EDT keeps a core; particles
+ * read the previous step's arrays and write the next, so no pass needs locking and the
+ * result does not depend on how the work was split.
+ *
+ * Finished steps are handed to the canvas through two frames: the stepping thread fills
+ * the back frame and swaps it to the front, skipping the copy while the canvas is still
+ * painting the back one. Neither side waits for the other.
+ *
+ * The scene itself is not touched; copyPositions gives the final positions once stopped.
+ */
+final class ParticleSimulation implements AutoCloseable {
+    private static final double MIN_SPEED = 40, MAX_SPEED = 120; // world units per second
+
+    /** Particle positions of one published step, rounded to world units. */
+    static final class Frame {
+        final int[] xs, ys, radius;
+        final ShapeStyle[] styles;
+        long step;
+
+        private Frame(int[] radius, ShapeStyle[] styles) {
+            this.xs = new int[radius.length];
+            this.ys = new int[radius.length];
+            this.radius = radius;
+            this.styles = styles;
+        }
+
+        int size() { return xs.length; }
+    }
+
+    private final int count;
+    private final double dt;
+    private final double minX, minY, maxX, maxY;
+    // particle state by slot, in the cell order of the previous step; id is the shape id
+    private double[] x, y, vx, vy, r, mass;
+    private int[] id;
+    // the same state gathered into this step's cell order, and the step's results
+    private double[] sx, sy, svx, svy, sr, smass;
+    private int[] sid;
+    private double[] nx, ny, nvx, nvy;
+    // broad phase: slots sorted by cell, cellStart[c] .. cellStart[c+1] in cell c
+    private final double cellSize;
+    private final int gridW, gridH;
+    private final int[] cellOf, cellStart, cellFill, sorted;
+    // circles with r > cellSize / 2, by their slot in this step's gathered order
+    private final int bigCount;
+    private final double bigCellSize;
+    private final int bigGridW, bigGridH;
+    private final int[] bigSlot, bigCellOf, bigCellStart, bigCellFill, bigSorted;
+
+    private final ForkJoinPool pool;
+    private final int grain;
+
+    private final Frame[] frames = new Frame[2];
+    private final Object frameLock = new Object();
+    private int front;            // index of the newest published frame
+    private Frame inUse;          // frame the canvas is painting, if any
+    private boolean published;
+    private volatile Runnable frameListener;
+
+    private Thread thread;
+    private volatile boolean running;
+    private volatile long steps;
+    private volatile double stepsPerSecond;
+    private final LatencyHistogram stepTimes = new LatencyHistogram("sim step");
+
+    /**
+     * Snapshots every shape of store as a particle with a random velocity; the same seed
+     * gives the same velocities. Call on the thread that owns the store.
+     */
+    ParticleSimulation(ShapeStore store, Rectangle bounds, double stepsPerSecond, long seed) {
+        this(store, bounds, stepsPerSecond, seed, new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    ParticleSimulation(ShapeStore store, Rectangle bounds, double stepsPerSecond, long seed, ForkJoinPool pool) {
+        if (stepsPerSecond <= 0) throw new IllegalArgumentException("Step rate must be positive: " + stepsPerSecond);
+        count = store.size();
+        dt = 1 / stepsPerSecond;
+        minX = bounds.x;
+        minY = bounds.y;
+        maxX = bounds.x + bounds.width;
+        maxY = bounds.y + bounds.height;
+        x = new double[count]; y = new double[count]; vx = new double[count]; vy = new double[count];
+        r = new double[count]; mass = new double[count]; id = new int[count];
+        sx = new double[count]; sy = new double[count]; svx = new double[count]; svy = new double[count];
+        sr = new double[count]; smass = new double[count]; sid = new int[count];
+        nx = new double[count]; ny = new double[count]; nvx = new double[count]; nvy = new double[count];
+        int[] radius = new int[count];
+        ShapeStyle[] styles = new ShapeStyle[count];
+        SplittableRandom rnd = new SplittableRandom(seed);
+        int maxR = 1;
+        for (int i = 0; i < count; i++) {
+            id[i] = i;
+            x[i] = store.getX(i);
+            y[i] = store.getY(i);
+            radius[i] = store.getRadius(i);
+            styles[i] = store.getStyle(i);
+            r[i] = radius[i];
+            mass[i] = Math.max(1, r[i] * r[i]);
+            maxR = Math.max(maxR, radius[i]);
+            double speed = MIN_SPEED + rnd.nextDouble() * (MAX_SPEED - MIN_SPEED), angle = rnd.nextDouble() * 2 * Math.PI;
+            vx[i] = speed * Math.cos(angle);
+            vy[i] = speed * Math.sin(angle);
+        }
+        frames[0] = new Frame(radius, styles);
+        frames[1] = new Frame(radius, styles);
+
+        // a cell must hold any pair of typical circles that can touch; the rest are "big"
+        int[] byRadius = radius.clone();
+        Arrays.sort(byRadius);
+        cellSize = gridCell(2.0 * Math.max(1, count == 0 ? 1 : byRadius[(int) ((count - 1) * 0.99)]), count);
+        gridW = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+        gridH = Math.max(1, (int) Math.ceil((maxY - minY) / cellSize));
+        cellOf = new int[count];
+        sorted = new int[count];
+        cellStart = new int[gridW * gridH + 1];
+        cellFill = new int[gridW * gridH];
+        int big = 0;
+        for (int i = 0; i < count; i++) if (r[i] > cellSize / 2) big++;
+        bigCount = big;
+        // any pair with a big circle in it is closer than two of the largest radii
+        bigCellSize = gridCell(2.0 * maxR, bigCount);
+        bigGridW = big == 0 ? 1 : Math.max(1, (int) Math.ceil((maxX - minX) / bigCellSize));
+        bigGridH = big == 0 ? 1 : Math.max(1, (int) Math.ceil((maxY - minY) / bigCellSize));
+        bigSlot = new int[big];
+        bigCellOf = new int[big];
+        bigSorted = new int[big];
+        bigCellStart = new int[big == 0 ? 1 : bigGridW * bigGridH + 1];
+        bigCellFill = new int[bigCellStart.length - 1];
+
+        this.pool = pool;
+        grain = Math.max(1024, count / (pool.getParallelism() * 8));
+    }
+
+    /** Grows cell from its minimum until the grid has O(n) cells, so sparse worlds stay cheap. */
+    private double gridCell(double cell, int n) {
+        while ((long) Math.ceil((maxX - minX) / cell) * (long) Math.ceil((maxY - minY) / cell) > 4L * n + 64) cell *= 1.5;
+        return cell;
+    }
+
+    int size() { return count; }
+
+    /** Width of a broad phase cell, about a typical diameter unless the world is sparse. */
+    double cellSize() { return cellSize; }
+
+    long getSteps() { return steps; }
+
+    /** Steps completed over the last second of running. */
+    double getStepsPerSecond() { return stepsPerSecond; }
+
+    /** Time per step, from binning to publishing. */
+    LatencyHistogram getStepTimes() { return stepTimes; }
+
+    boolean isRunning() { return running; }
+
+    /** Called on the stepping thread after each published frame, e.g. to schedule a repaint. */
+    void setFrameListener(Runnable l) { frameListener = l; }
+
+    /**
+     * Starts stepping on a thread of its own. Paced, steps follow the clock at the fixed
+     * rate, dropping time rather than piling up steps when they fall behind; unpaced, they
+     * run back to back, for measuring.
+     */
+    synchronized void start(boolean paced) {
+        if (running) return;
+        running = true;
+        publish(); // the canvas shows the particles from the first frame on
+        thread = new Thread(() -> run(paced), "particle-simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops stepping and waits for the current step to finish. */
+    synchronized void stop() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    @Override public void close() {
+        stop();
+        if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+    }
+
+    /** Final positions, rounded to world units; only while stopped. */
+    void copyPositions(int[] xs, int[] ys) {
+        if (running) throw new IllegalStateException("Simulation is running");
+        for (int k = 0; k < count; k++) {
+            xs[id[k]] = (int) Math.round(x[k]);
+            ys[id[k]] = (int) Math.round(y[k]);
+        }
+    }
+
+    /**
+     * The newest frame, held for painting until releaseFrame; null before the first
+     * frame. Only one frame can be held at a time.
+     */
+    Frame acquireFrame() {
+        synchronized (frameLock) {
+            if (!published) return null;
+            inUse = frames[front];
+            return inUse;
+        }
+    }
+
+    void releaseFrame(Frame f) {
+        synchronized (frameLock) {
+            if (inUse == f) inUse = null;
+        }
+    }
+
+    private void run(boolean paced) {
+        long stepNanos = Math.round(dt * 1e9);
+        long next = System.nanoTime(), windowStart = next, windowSteps = 0;
+        while (running) {
+            long t0 = System.nanoTime();
+            step();
+            publish();
+            long now = System.nanoTime();
+            stepTimes.record(now - t0);
+            Metrics.emit(stepTimes, now - t0);
+            windowSteps++;
+            if (now - windowStart >= 1_000_000_000L) {
+                stepsPerSecond = windowSteps * 1e9 / (now - windowStart);
+                windowSteps = 0;
+                windowStart = now;
+            }
+            if (!paced) continue;
+            next += stepNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(this, wait);
+            else if (wait < -4 * stepNanos) next = System.nanoTime(); // behind: slow down rather than catch up
+        }
+    }
+
+    /** Advances every particle by one time step, on the calling thread and the pool. */
+    void step() {
+        pool.invoke(new Pass(BIN, 0, count));
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < count; i++) cellStart[cellOf[i] + 1]++;
+        for (int c = 0; c < cellFill.length; c++) {
+            cellStart[c + 1] += cellStart[c];
+            cellFill[c] = cellStart[c];
+        }
+        double half = cellSize / 2;
+        int nb = 0;
+        for (int i = 0; i < count; i++) {
+            int k = cellFill[cellOf[i]]++;
+            sorted[k] = i;
+            if (r[i] > half) bigSlot[nb++] = k;
+        }
+
+        pool.invoke(new Pass(GATHER, 0, count));
+        if (bigCount > 0) binBig();
+        pool.invoke(new Pass(MOVE, 0, count));
+        // results and gathered radii, masses and ids become the state; the old state is reused
+        double[] t;
+        t = x; x = nx; nx = t;
+        t = y; y = ny; ny = t;
+        t = vx; vx = nvx; nvx = t;
+        t = vy; vy = nvy; nvy = t;
+        t = r; r = sr; sr = t;
+        t = mass; mass = smass; smass = t;
+        int[] ti = id; id = sid; sid = ti;
+        steps++;
+    }
+
+    /** Copies the state into the back frame and makes it the front, unless the canvas still holds it. */
+    private void publish() {
+        Frame back;
+        synchronized (frameLock) {
+            back = frames[1 - front];
+            if (published && back == inUse) return; // only front can be acquired meanwhile, so back stays ours
+        }
+        for (int k = 0; k < count; k++) {
+            back.xs[id[k]] = (int) Math.round(x[k]);
+            back.ys[id[k]] = (int) Math.round(y[k]);
+        }
+        back.step = steps;
+        synchronized (frameLock) {
+            front = 1 - front;
+            published = true;
+        }
+        Runnable l = frameListener;
+        if (l != null) l.run();
+    }
+
+    private static final int BIN = 0, GATHER = 1, MOVE = 2;
+
+    /** One pass over a range of particles, split in halves until grain-sized. */
+    private final class Pass extends RecursiveAction {
+        private final int kind, from, to;
+
+        Pass(int kind, int from, int to) {
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected void compute() {
+            if (to - from <= grain) {
+                if (kind == BIN) bin(from, to);
+                else if (kind == GATHER) gather(from, to);
+                else move(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Pass(kind, from, mid), new Pass(kind, mid, to));
+        }
+    }
+
+    private int cellX(double px) { return Math.min(gridW - 1, Math.max(0, (int) ((px - minX) / cellSize))); }
+
+    private int cellY(double py) { return Math.min(gridH - 1, Math.max(0, (int) ((py - minY) / cellSize))); }
+
+    private int bigCellX(double px) { return Math.min(bigGridW - 1, Math.max(0, (int) ((px - minX) / bigCellSize))); }
+
+    private int bigCellY(double py) { return Math.min(bigGridH - 1, Math.max(0, (int) ((py - minY) / bigCellSize))); }
+
+    /** Sorts the gathered slots of the big circles by coarse cell, like step does for all. */
+    private void binBig() {
+        Arrays.fill(bigCellStart, 0);
+        for (int j = 0; j < bigCount; j++) {
+            int k = bigSlot[j];
+            bigCellOf[j] = bigCellY(sy[k]) * bigGridW + bigCellX(sx[k]);
+            bigCellStart[bigCellOf[j] + 1]++;
+        }
+        for (int c = 0; c < bigCellFill.length; c++) {
+            bigCellStart[c + 1] += bigCellStart[c];
+            bigCellFill[c] = bigCellStart[c];
+        }
+        for (int j = 0; j < bigCount; j++) bigSorted[bigCellFill[bigCellOf[j]]++] = bigSlot[j];
+    }
+
+    private void bin(int from, int to) {
+        for (int i = from; i < to; i++) cellOf[i] = cellY(y[i]) * gridW + cellX(x[i]);
+    }
+
+    private void gather(int from, int to) {
+        for (int k = from; k < to; k++) {
+            int i = sorted[k];
+            sx[k] = x[i];
+            sy[k] = y[i];
+            svx[k] = vx[i];
+            svy[k] = vy[i];
+            sr[k] = r[i];
+            smass[k] = mass[i];
+            sid[k] = id[i];
+        }
+    }
+
+    /**
+     * Resolves the contacts of the gathered particles from .. to and integrates them. A
+     * pair is handled from both sides with the same inputs, so each side applies its share
+     * of the impulse and of the push that separates them, by the other's share of the mass.
+     * Pairs with a big circle in them are found through the coarse grid only, so none is
+     * counted twice.
+     */
+    private void move(int from, int to) {
+        double half = cellSize / 2;
+        double[] acc = new double[4]; // dvx, dvy, px, py
+        for (int k = from; k < to; k++) {
+            double xi = sx[k], yi = sy[k], ri = sr[k];
+            acc[0] = acc[1] = acc[2] = acc[3] = 0;
+            // a typical circle reaches the 3x3 cells around it; a big one every cell it overlaps
+            int x0, x1, y0, y1;
+            if (ri > half) {
+                x0 = cellX(xi - ri - half); x1 = cellX(xi + ri + half);
+                y0 = cellY(yi - ri - half); y1 = cellY(yi + ri + half);
+            } else {
+                int cx = cellX(xi), cy = cellY(yi);
+                x0 = Math.max(0, cx - 1); x1 = Math.min(gridW - 1, cx + 1);
+                y0 = Math.max(0, cy - 1); y1 = Math.min(gridH - 1, cy + 1);
+            }
+            for (int gy = y0; gy <= y1; gy++) {
+                // the cells of a grid row are adjacent in sorted order, so each row is one run
+                for (int m = cellStart[gy * gridW + x0], end = cellStart[gy * gridW + x1 + 1]; m < end; m++) {
+                    if (m != k && sr[m] <= half) touch(k, m, acc);
+                }
+            }
+            if (bigCount > 0) {
+                int cx = bigCellX(xi), cy = bigCellY(yi);
+                int bx0 = Math.max(0, cx - 1), bx1 = Math.min(bigGridW - 1, cx + 1);
+                for (int gy = Math.max(0, cy - 1), gy1 = Math.min(bigGridH - 1, cy + 1); gy <= gy1; gy++) {
+                    for (int j = bigCellStart[gy * bigGridW + bx0], end = bigCellStart[gy * bigGridW + bx1 + 1]; j < end; j++) {
+                        if (bigSorted[j] != k) touch(k, bigSorted[j], acc);
+                    }
+                }
+            }
+            double vxn = svx[k] + acc[0], vyn = svy[k] + acc[1];
+            double xn = xi + acc[2] + vxn * dt, yn = yi + acc[3] + vyn * dt;
+            if (maxX - minX < 2 * ri) xn = (minX + maxX) / 2;
+            else if (xn - ri < minX) { xn = minX + ri; vxn = Math.abs(vxn); }
+            else if (xn + ri > maxX) { xn = maxX - ri; vxn = -Math.abs(vxn); }
+            if (maxY - minY < 2 * ri) yn = (minY + maxY) / 2;
+            else if (yn - ri < minY) { yn = minY + ri; vyn = Math.abs(vyn); }
+            else if (yn + ri > maxY) { yn = maxY - ri; vyn = -Math.abs(vyn); }
+            nx[k] = xn;
+            ny[k] = yn;
+            nvx[k] = vxn;
+            nvy[k] = vyn;
+        }
+    }
+
+    /** Adds m's push on k and the impulse between them to acc, if they overlap. */
+    private void touch(int k, int m, double[] acc) {
+        double dx = sx[m] - sx[k], dy = sy[m] - sy[k], reach = sr[k] + sr[m];
+        double d2 = dx * dx + dy * dy;
+        if (d2 >= reach * reach) return;
+        if (d2 == 0) { // coincident: split along x by sorted position so both sides agree
+            dx = m > k ? 1e-3 : -1e-3;
+            d2 = dx * dx;
+        }
+        double d = Math.sqrt(d2), ux = dx / d, uy = dy / d;
+        double share = smass[m] / (smass[k] + smass[m]);
+        double overlap = reach - d;
+        acc[2] -= ux * overlap * share;
+        acc[3] -= uy * overlap * share;
+        double closing = (svx[m] - svx[k]) * ux + (svy[m] - svy[k]) * uy;
+        if (closing < 0) {
+            acc[0] += 2 * share * closing * ux;
+            acc[1] += 2 * share * closing * uy;
+        }
+    }
+
+    /**
+     * Headless throughput check: steps N circles (default 200000) unpaced for a few
+     * seconds and prints steps/s and step time percentiles. A third argument adds one
+     * circle of that radius in the middle, to check that it does not slow the rest down.
+     *
+     *     java -cp app.jar ParticleSimulation 200000 10 2000
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int bigRadius = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int radius = 4;
+        // about a fifth of the world covered, so circles meet often without jamming
+        int side = (int) Math.sqrt(n * Math.PI * radius * radius / 0.2);
+        Rectangle world = new Rectangle(0, 0, side, side);
+        ShapeManager shapes = new ShapeManager(new ColumnarShapeStore(n));
+        PrototypeRegistry registry = new PrototypeRegistry();
+        registry.register("Dot", new CirclePrototype("Dot", radius, Color.CYAN));
+        shapes.addShapes(registry.spawnBatch("Dot", n, world, 1));
+        if (bigRadius > 0) shapes.addShape(new CircleShape("Big", side / 2, side / 2, bigRadius, Color.ORANGE));
+
+        try (ParticleSimulation sim = new ParticleSimulation(shapes.getStore(), world, Integer.getInteger("sim.hz", 120), 1)) {
+            System.out.printf("%,d circles in %,d x %,d, %d workers, %d x %d grid, %d big%n", sim.size(), side, side, sim.pool.getParallelism(), sim.gridW, sim.gridH, sim.bigCount);
+            sim.start(false);
+            for (int s = 1; s <= seconds; s++) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                System.out.printf("%3d s  %7.1f steps/s%n", s, sim.getStepsPerSecond());
+            }
+            sim.stop();
+            LatencyHistogram h = sim.getStepTimes();
+            System.out.printf("%,d steps, step p50 %.2f ms  p99 %.2f ms%n", sim.getSteps(), h.percentile(0.5) / 1e6, h.percentile(0.99) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Finds room for new circles without overlapping the ones already on the canvas. Every
+ * candidate is checked against the scene through the ShapeManager's grid index, so a test
+ * only looks at shapes near the candidate. Bulk packing picks points of a hexagonal
+ * lattice of spacing 2r + gap over the area: lattice points cannot overlap each other, so
+ * only the existing scene needs checking. Small lattices are scanned whole; on large ones
+ * random lattice points are tried instead, so the work stays proportional to the count
+ * however large the area is.
+ */
+class PlacementEngine {
+    /** Lattice points per requested clone up to which pack scans every point. */
+    private static final int SCAN_PER_CLONE = 4;
+    /** Random lattice points pack tries per requested clone on larger lattices. */
+    private static final int TRIES_PER_CLONE = 16;
+
+    private final ShapeManager scene;
+    private final int gap;
+
+    PlacementEngine(ShapeManager scene, int gap) {
+        this.scene = scene;
+        this.gap = Math.max(0, gap);
+    }
+
+    /**
+     * A free center for a circle of this radius inside area, or null if none was found.
+     * Random candidates around the middle of the area are tried first, over a spread that
+     * doubles until it covers the area; a dense scene falls back to scanning the lattice.
+     */
+    Point findFree(int radius, Rectangle area) {
+        Rectangle centers = centerArea(radius, area);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int cx = (int) area.getCenterX(), cy = (int) area.getCenterY();
+        int reach = 2 * Math.max(area.width, area.height);
+        for (int spread = 200; spread < 2 * reach; spread *= 2) {
+            for (int attempt = 0; attempt < 32; attempt++) {
+                int x = clamp(cx + (int) ((rnd.nextDouble() - 0.5) * spread), centers.x, centers.width);
+                int y = clamp(cy + (int) ((rnd.nextDouble() - 0.5) * spread), centers.y, centers.height);
+                if (isFree(x, y, radius)) return new Point(x, y);
+            }
+        }
+        double step = 2 * radius + gap, rowStep = step * Math.sqrt(3) / 2;
+        int row = 0;
+        for (double y = centers.y; y <= centers.y + centers.height; y += rowStep, row++) {
+            for (double x = centers.x + (row & 1) * step / 2; x <= centers.x + centers.width; x += step) {
+                if (isFree((int) x, (int) y, radius)) return new Point((int) x, (int) y);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Up to count clones of the style placed on free lattice points in area, chosen at
+     * random among all free points so they spread over the whole area. The batch holds
+     * fewer than count clones when the area is full, or on a large lattice when free points
+     * are too rare to hit in TRIES_PER_CLONE * count tries. The same seed always yields the
+     * same batch for the same scene.
+     */
+    ShapeBatch pack(ShapeStyle style, int radius, int count, Rectangle area, long seed) {
+        if (count < 0) throw new IllegalArgumentException("Negative count: " + count);
+        Rectangle centers = centerArea(radius, area);
+        double step = 2 * radius + gap, rowStep = step * Math.sqrt(3) / 2;
+        int cols = (int) (centers.width / step) + 1, rows = (int) (centers.height / rowStep) + 1;
+        long points = (long) cols * rows;
+        SplittableRandom rnd = new SplittableRandom(seed);
+        if (points > (long) SCAN_PER_CLONE * count + 4096) return sample(style, radius, count, centers, cols, rows, rnd);
+
+        int[] xs = new int[(int) points], ys = new int[(int) points];
+        int free = 0;
+        for (int r = 0; r < rows; r++) {
+            int y = (int) (centers.y + r * rowStep);
+            double x0 = centers.x + (r & 1) * step / 2;
+            for (int c = 0; c < cols; c++) {
+                int x = (int) (x0 + c * step);
+                if (x > centers.x + centers.width) break;
+                if (!isFree(x, y, radius)) continue;
+                xs[free] = x;
+                ys[free] = y;
+                free++;
+            }
+        }
+        int n = Math.min(count, free);
+        if (n < free) {
+            // partial Fisher-Yates: the first n slots become a uniform sample of the free points
+            for (int i = 0; i < n; i++) {
+                int j = i + rnd.nextInt(free - i);
+                int t = xs[i]; xs[i] = xs[j]; xs[j] = t;
+                t = ys[i]; ys[i] = ys[j]; ys[j] = t;
+            }
+        }
+        return new ShapeBatch(style, radius, Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
+    }
+
+    /**
+     * Dart throwing over a lattice too large to scan: distinct random points are tried
+     * until count are free or the tries run out, so every free point is equally likely.
+     */
+    private ShapeBatch sample(ShapeStyle style, int radius, int count, Rectangle centers, int cols, int rows, SplittableRandom rnd) {
+        double step = 2 * radius + gap, rowStep = step * Math.sqrt(3) / 2;
+        long points = (long) cols * rows, tries = (long) TRIES_PER_CLONE * count;
+        Set<Long> tried = new HashSet<>();
+        int[] xs = new int[count], ys = new int[count];
+        int n = 0;
+        for (long t = 0; t < tries && n < count; t++) {
+            long p = rnd.nextLong(points);
+            if (!tried.add(p)) continue;
+            int r = (int) (p / cols), c = (int) (p % cols);
+            int x = (int) (centers.x + (r & 1) * step / 2 + c * step), y = (int) (centers.y + r * rowStep);
+            if (x > centers.x + centers.width || !isFree(x, y, radius)) continue;
+            xs[n] = x;
+            ys[n] = y;
+            n++;
+        }
+        return new ShapeBatch(style, radius, Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
+    }
+
+    /** True if a circle at (x, y) keeps at least gap pixels from every placed circle. */
+    boolean isFree(int x, int y, int radius) {
+        int reach = radius + gap;
+        ShapeStore store = scene.getStore();
+        // a placed circle that comes this close has paint bounds touching this box
+        for (int id : scene.idsIn(new Rectangle(x - reach, y - reach, 2 * reach + 1, 2 * reach + 1))) {
+            long dx = store.getX(id) - x, dy = store.getY(id) - y;
+            long min = (long) store.getRadius(id) + reach;
+            if (dx * dx + dy * dy < min * min) return false;
+        }
+        return true;
+    }
+
+    /** Where centers may go so the circle stays inside area; collapses to the middle if it cannot. */
+    private static Rectangle centerArea(int radius, Rectangle area) {
+        int w = area.width - 2 * radius, h = area.height - 2 * radius;
+        int x = w >= 0 ? area.x + radius : (int) area.getCenterX();
+        int y = h >= 0 ? area.y + radius : (int) area.getCenterY();
+        return new Rectangle(x, y, Math.max(0, w), Math.max(0, h));
+    }
+
+    private static int clamp(int v, int min, int span) {
+        return Math.max(min, Math.min(min + span, v));
+    }
+}
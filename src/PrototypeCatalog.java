@@ -0,0 +1,368 @@
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Searchable index over the registered prototypes and an optional PrototypeLibrary, and
+ * the source of the prototype lists in the UI. It follows the registry through its
+ * PrototypeListener events and passes each change on to its views as a single added,
+ * removed or changed row, so a list of thousands never reloads.
+ *
+ * Rows are the registered prototypes in registration order, then the library entries not
+ * registered under the same key, in library order. A library prototype is registered on
+ * first use (ensureRegistered) and from then on is edited and saved like any other.
+ *
+ * Searches match key prefixes first, from a sorted index of registered keys and by binary
+ * search in the library, then fuzzy matches: keys containing the query's characters in
+ * order, found by comparing character masks before any string is looked at and ranked
+ * by how tightly and how early they match. Library keys are only decoded for entries
+ * that match. All on the EDT; the search field waits for a pause in typing.
+ */
+final class PrototypeCatalog implements PrototypeListener {
+    private final PrototypeRegistry registry;
+    private PrototypeLibrary library;
+
+    // registered keys: rows in order, and a prefix index of "lower-cased key \0 key"
+    private final List<String> registered = new ArrayList<>();
+    private final TreeSet<String> prefixIndex = new TreeSet<>();
+    private final Map<String, Long> masks = new HashMap<>();
+    private int[] shadowed = new int[0]; // sorted library indices hidden by a registered key
+
+    private final List<View> views = new ArrayList<>();
+
+    PrototypeCatalog(PrototypeRegistry registry) {
+        this.registry = registry;
+        for (String key : registry.keys()) index(key);
+        registry.addListener(this);
+    }
+
+    PrototypeLibrary getLibrary() { return library; }
+
+    /** Shows the library's entries after the registered prototypes; null closes it. */
+    void setLibrary(PrototypeLibrary library) {
+        int before = size();
+        this.library = library;
+        shadowed = new int[0];
+        if (library != null) {
+            for (String key : registered) shadow(library.find(key));
+        }
+        for (View v : views) v.replaced(before);
+    }
+
+    boolean isRegistered(String key) { return masks.containsKey(key); }
+
+    /**
+     * Registers the library prototype under key unless a prototype is already registered
+     * there; false if neither has it.
+     */
+    boolean ensureRegistered(String key) {
+        if (isRegistered(key)) return true;
+        int i = library == null ? -1 : library.find(key);
+        if (i < 0) return false;
+        registry.register(key, library.get(i));
+        return true;
+    }
+
+    /** A view of every row that can be narrowed with setFilter; usable as a JList or JComboBox model. */
+    View newView() {
+        View v = new View();
+        views.add(v);
+        return v;
+    }
+
+    /** Rows without a filter: registered keys, then visible library entries. */
+    int size() {
+        return registered.size() + (library == null ? 0 : library.size() - shadowed.length);
+    }
+
+    String row(int index) {
+        if (index < registered.size()) return registered.get(index);
+        int i = index - registered.size();
+        for (int s : shadowed) {
+            if (s <= i) i++;
+            else break;
+        }
+        return library.key(i);
+    }
+
+    /** The row a visible library entry occupies. */
+    private int libraryRow(int i) {
+        int hidden = Arrays.binarySearch(shadowed, i);
+        return registered.size() + i - (hidden >= 0 ? hidden : -hidden - 1);
+    }
+
+    /**
+     * Keys matching the query, best first: prefix matches in key order, then fuzzy matches
+     * by score. At most limit keys.
+     */
+    List<String> search(String query, int limit) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty()) return Collections.emptyList();
+        Set<String> out = new LinkedHashSet<>();
+        for (String entry : prefixIndex.subSet(q, q + Character.MAX_VALUE)) {
+            if (out.size() == limit) return new ArrayList<>(out);
+            out.add(entry.substring(entry.indexOf('\0') + 1));
+        }
+        if (library != null) {
+            for (int i = library.lowerBound(q); i < library.size() && out.size() < limit && library.lowerKey(i).startsWith(q); i++) {
+                out.add(library.key(i)); // a registered duplicate is already in
+            }
+        }
+        if (out.size() >= limit) return new ArrayList<>(out);
+
+        long qm = PrototypeLibrary.mask(q);
+        List<Match> fuzzy = new ArrayList<>();
+        for (String key : registered) {
+            if ((masks.get(key) & qm) != qm || out.contains(key)) continue;
+            int score = fuzzyScore(key.toLowerCase(Locale.ROOT), q);
+            if (score >= 0) fuzzy.add(new Match(key, score));
+        }
+        if (library != null) {
+            for (int i = 0, n = library.size(); i < n; i++) {
+                if ((library.mask(i) & qm) != qm) continue;
+                int score = library.fuzzyScore(i, q);
+                if (score < 0) continue;
+                String key = library.keyUncached(i);
+                if (!out.contains(key) && !isRegistered(key)) fuzzy.add(new Match(key, score));
+            }
+        }
+        fuzzy.sort((a, b) -> a.score != b.score ? Integer.compare(b.score, a.score)
+                : a.key.length() != b.key.length() ? Integer.compare(a.key.length(), b.key.length())
+                : PrototypeLibrary.ORDER.compare(a.key, b.key));
+        for (Match m : fuzzy) {
+            if (out.size() == limit) break;
+            out.add(m.key);
+        }
+        return new ArrayList<>(out);
+    }
+
+    private static final class Match {
+        final String key;
+        final int score;
+
+        Match(String key, int score) {
+            this.key = key;
+            this.score = score;
+        }
+    }
+
+    /**
+     * How well the query's characters appear in order in key, or -1 if they do not: each
+     * matched character scores, more when it follows the previous match or starts a word,
+     * and gaps cost a little. Both lower-cased.
+     */
+    static int fuzzyScore(CharSequence key, String query) {
+        int score = 0, at = -1;
+        for (int i = 0; i < query.length(); i++) {
+            int found = indexOf(key, query.charAt(i), at + 1);
+            if (found < 0) return -1;
+            score += 1;
+            if (found == at + 1) score += 5;
+            if (found == 0 || !Character.isLetterOrDigit(key.charAt(found - 1))) score += 8;
+            score -= Math.min(3, found - at - 1);
+            at = found;
+        }
+        return score;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from, n = s.length(); i < n; i++) {
+            if (s.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    // ---- registry events ----
+
+    @Override public void prototypeRegistered(String key, CirclePrototype proto) {
+        if (isRegistered(key)) {
+            int row = registered.indexOf(key);
+            for (View v : views) v.changed(row);
+            return;
+        }
+        index(key);
+        for (View v : views) v.added(registered.size() - 1);
+        hideLibraryEntry(key);
+    }
+
+    @Override public void prototypeRemoved(String key) {
+        int row = registered.indexOf(key);
+        if (row < 0) return;
+        unindex(key);
+        registered.remove(row);
+        for (View v : views) v.removed(row);
+        showLibraryEntry(key);
+    }
+
+    @Override public void prototypeRenamed(String oldKey, String newKey, CirclePrototype proto) {
+        int row = registered.indexOf(oldKey);
+        if (row < 0) {
+            prototypeRegistered(newKey, proto);
+            return;
+        }
+        unindex(oldKey);
+        registered.set(row, newKey);
+        prefixIndex.add(newKey.toLowerCase(Locale.ROOT) + '\0' + newKey);
+        masks.put(newKey, PrototypeLibrary.mask(newKey.toLowerCase(Locale.ROOT)));
+        for (View v : views) v.changed(row);
+        showLibraryEntry(oldKey);
+        hideLibraryEntry(newKey);
+    }
+
+    @Override public void prototypesCleared() {
+        int before = size();
+        registered.clear();
+        prefixIndex.clear();
+        masks.clear();
+        shadowed = new int[0];
+        for (View v : views) v.replaced(before);
+    }
+
+    private void index(String key) {
+        registered.add(key);
+        String lower = key.toLowerCase(Locale.ROOT);
+        prefixIndex.add(lower + '\0' + key);
+        masks.put(key, PrototypeLibrary.mask(lower));
+    }
+
+    private void unindex(String key) {
+        prefixIndex.remove(key.toLowerCase(Locale.ROOT) + '\0' + key);
+        masks.remove(key);
+    }
+
+    private void hideLibraryEntry(String key) {
+        int i = library == null ? -1 : library.find(key);
+        if (i < 0) return;
+        int row = libraryRow(i);
+        shadow(i);
+        for (View v : views) v.removed(row);
+    }
+
+    private void showLibraryEntry(String key) {
+        int i = library == null ? -1 : library.find(key);
+        int at = i < 0 ? -1 : Arrays.binarySearch(shadowed, i);
+        if (at < 0) return;
+        int[] s = new int[shadowed.length - 1];
+        System.arraycopy(shadowed, 0, s, 0, at);
+        System.arraycopy(shadowed, at + 1, s, at, s.length - at);
+        shadowed = s;
+        int row = libraryRow(i);
+        for (View v : views) v.added(row);
+    }
+
+    private void shadow(int i) {
+        if (i < 0) return;
+        int at = Arrays.binarySearch(shadowed, i);
+        if (at >= 0) return;
+        at = -at - 1;
+        int[] s = new int[shadowed.length + 1];
+        System.arraycopy(shadowed, 0, s, 0, at);
+        s[at] = i;
+        System.arraycopy(shadowed, at, s, at + 1, shadowed.length - at);
+        shadowed = s;
+    }
+
+    /**
+     * The catalog's rows, or the results of a search once a filter is set. Unfiltered, rows
+     * are read from the catalog on demand; filtered, changes rerun the search once per EDT
+     * turn, so loading a scene's prototypes does not search once per prototype, and the
+     * view reports only the rows that differ from the previous results.
+     */
+    final class View extends AbstractListModel<String> implements ComboBoxModel<String> {
+        /** Results shown for a filter; a library can make the full list long, so searches stop here. */
+        static final int MAX_RESULTS = 5000;
+
+        private String filter = "";
+        private List<String> results; // null while unfiltered
+        private Object selected;
+        private boolean refilterQueued;
+
+        void setFilter(String text) {
+            String f = text == null ? "" : text.trim();
+            if (f.equals(filter)) return;
+            int before = getSize();
+            filter = f;
+            results = f.isEmpty() ? null : search(f, MAX_RESULTS);
+            fireReplaced(before);
+        }
+
+        String getFilter() { return filter; }
+
+        @Override public int getSize() { return results != null ? results.size() : size(); }
+
+        @Override public String getElementAt(int index) { return results != null ? results.get(index) : row(index); }
+
+        @Override public void setSelectedItem(Object item) {
+            if (item == null ? selected == null : item.equals(selected)) return;
+            selected = item;
+            fireContentsChanged(this, -1, -1);
+        }
+
+        @Override public Object getSelectedItem() { return selected; }
+
+        void added(int row) {
+            if (results == null) fireIntervalAdded(this, row, row);
+            else queueRefilter();
+        }
+
+        void removed(int row) {
+            if (results == null) fireIntervalRemoved(this, row, row);
+            else queueRefilter();
+        }
+
+        void changed(int row) {
+            if (results == null) fireContentsChanged(this, row, row);
+            else queueRefilter();
+        }
+
+        /** Everything may have changed; before is the catalog's old row count. */
+        void replaced(int before) {
+            if (results == null) {
+                fireReplaced(before);
+                return;
+            }
+            int old = results.size();
+            results = search(filter, MAX_RESULTS);
+            fireReplaced(old);
+        }
+
+        private void fireReplaced(int before) {
+            if (before > 0) fireIntervalRemoved(this, 0, before - 1);
+            if (getSize() > 0) fireIntervalAdded(this, 0, getSize() - 1);
+        }
+
+        private void queueRefilter() {
+            if (refilterQueued) return;
+            refilterQueued = true;
+            SwingUtilities.invokeLater(this::refilter);
+        }
+
+        /** Reruns the search and reports the differing middle between the old and new results. */
+        private void refilter() {
+            refilterQueued = false;
+            if (results == null) return; // the filter was cleared meanwhile
+            List<String> old = results, now = search(filter, MAX_RESULTS);
+            results = now;
+            int head = 0;
+            while (head < old.size() && head < now.size() && old.get(head).equals(now.get(head))) head++;
+            int tail = 0;
+            while (tail < old.size() - head && tail < now.size() - head
+                    && old.get(old.size() - 1 - tail).equals(now.get(now.size() - 1 - tail))) tail++;
+            int removed = old.size() - head - tail, added = now.size() - head - tail;
+            int same = Math.min(removed, added);
+            if (same > 0) fireContentsChanged(this, head, head + same - 1);
+            if (removed > same) fireIntervalRemoved(this, head + same, head + removed - 1);
+            if (added > same) fireIntervalAdded(this, head + same, head + added - 1);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A read-only prototype library on disk, for collections too big to keep registered.
+ * Opening maps the file and reads only the header; entries are decoded a page at a time
+ * when first touched, and only the most recently used pages stay in memory. Entries are
+ * sorted by lower-cased key, so prefix lookups are binary searches, and each carries a
+ * character mask that lets fuzzy search skip most entries without decoding them. Fuzzy
+ * search scores the rest straight from the mapped bytes, bypassing the page cache, so a
+ * scan of the whole library neither builds strings nor evicts the pages the list shows.
+ * Big-endian, like SceneFile.
+ *
+ * <pre>
+ * header   magic "PLIB", version, entry count, 0, long entries offset, long strings offset
+ * entries  fixed ENTRY_BYTES records in key order: long character mask,
+ *          int key offset, int name offset (into strings), int radius, int ARGB
+ * strings  per string: int byte length + UTF-8 bytes
+ * </pre>
+ *
+ * Instances are confined to one thread, the EDT in the app.
+ */
+final class PrototypeLibrary {
+    static final int MAGIC = 0x504C4942; // "PLIB"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int ENTRY_BYTES = 24;
+    private static final int PAGE_ENTRIES = 256;
+    private static final int CACHED_PAGES = 64;
+
+    /** Library order: lower-cased key, then the key itself so keys differing in case stay apart. */
+    static final Comparator<String> ORDER = Comparator.<String, String>comparing(k -> k.toLowerCase(Locale.ROOT)).thenComparing(k -> k);
+
+    private final Path file;
+    private final MappedByteBuffer map;
+    private final int count;
+    private final int entriesOff, stringsOff;
+    private final AsciiLower scanKey = new AsciiLower();
+    private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) { return size() > CACHED_PAGES; }
+    };
+
+    /** One decoded run of PAGE_ENTRIES entries; prototypes are built on first use. */
+    private static final class Page {
+        final String[] keys, lowerKeys;
+        final CirclePrototype[] prototypes;
+
+        Page(int n) {
+            keys = new String[n];
+            lowerKeys = new String[n];
+            prototypes = new CirclePrototype[n];
+        }
+    }
+
+    private PrototypeLibrary(Path file, MappedByteBuffer map, int count, int entriesOff, int stringsOff) {
+        this.file = file;
+        this.map = map;
+        this.count = count;
+        this.entriesOff = entriesOff;
+        this.stringsOff = stringsOff;
+    }
+
+    static PrototypeLibrary open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES || ch.size() > Integer.MAX_VALUE) throw new IOException("Not a prototype library: " + file);
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (map.getInt(0) != MAGIC) throw new IOException("Not a prototype library: " + file);
+            int version = map.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported library version " + version + " in " + file);
+            int count = map.getInt(8);
+            long entriesOff = map.getLong(16), stringsOff = map.getLong(24);
+            if (count < 0 || entriesOff + (long) ENTRY_BYTES * count > stringsOff || stringsOff > ch.size()) {
+                throw new IOException("Truncated prototype library: " + file);
+            }
+            return new PrototypeLibrary(file, map, count, (int) entriesOff, (int) stringsOff);
+        }
+    }
+
+    /** Writes the registry's prototypes as a library. */
+    static void write(Path file, PrototypeRegistry registry) throws IOException {
+        List<String> keys = new ArrayList<>(registry.keys());
+        keys.sort(ORDER);
+        List<byte[]> strings = new ArrayList<>();
+        Map<String, Integer> stringOffsets = new LinkedHashMap<>();
+        int[] keyOff = new int[keys.size()], nameOff = new int[keys.size()];
+        int stringsLen = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            String[] pair = { keys.get(i), registry.getPrototypeForEdit(keys.get(i)).getName() };
+            for (int j = 0; j < 2; j++) {
+                Integer off = stringOffsets.get(pair[j]);
+                if (off == null) {
+                    byte[] b = pair[j].getBytes(StandardCharsets.UTF_8);
+                    off = stringsLen;
+                    stringOffsets.put(pair[j], off);
+                    strings.add(b);
+                    stringsLen += 4 + b.length;
+                }
+                if (j == 0) keyOff[i] = off; else nameOff[i] = off;
+            }
+        }
+        long stringsOff = HEADER_BYTES + (long) ENTRY_BYTES * keys.size();
+        long total = stringsOff + stringsLen;
+        if (total > Integer.MAX_VALUE) throw new IOException("Library too large: " + keys.size() + " prototypes");
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, total);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(keys.size()).putInt(0).putLong(HEADER_BYTES).putLong(stringsOff);
+            for (int i = 0; i < keys.size(); i++) {
+                CirclePrototype p = registry.getPrototypeForEdit(keys.get(i));
+                buf.putLong(mask(keys.get(i).toLowerCase(Locale.ROOT))).putInt(keyOff[i]).putInt(nameOff[i])
+                   .putInt(p.getRadius()).putInt(p.getColor().getRGB());
+            }
+            for (byte[] b : strings) buf.putInt(b.length).put(b);
+            buf.force();
+        }
+    }
+
+    /**
+     * Bit per letter and digit present, other characters folded into the remaining bits. A
+     * key can only contain every character of a query if its mask covers the query's.
+     */
+    static long mask(String lower) {
+        long m = 0;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c >= 'a' && c <= 'z') m |= 1L << (c - 'a');
+            else if (c >= '0' && c <= '9') m |= 1L << (26 + c - '0');
+            else m |= 1L << (36 + c % 28);
+        }
+        return m;
+    }
+
+    Path getFile() { return file; }
+
+    int size() { return count; }
+
+    String key(int i) { return page(i).keys[i % PAGE_ENTRIES]; }
+
+    String lowerKey(int i) { return page(i).lowerKeys[i % PAGE_ENTRIES]; }
+
+    long mask(int i) { return map.getLong(entriesOff + i * ENTRY_BYTES); }
+
+    /** Entry i's key, decoded without going through the page cache. */
+    String keyUncached(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Entry " + i + " of " + count);
+        return string(map.getInt(entriesOff + i * ENTRY_BYTES + 8));
+    }
+
+    /**
+     * PrototypeCatalog.fuzzyScore of entry i's lower-cased key against lowerQuery. ASCII
+     * keys are lower-cased byte by byte as they are compared; others are decoded.
+     */
+    int fuzzyScore(int i, String lowerQuery) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Entry " + i + " of " + count);
+        int at = stringsOff + map.getInt(entriesOff + i * ENTRY_BYTES + 8), length = map.getInt(at);
+        for (int j = 0; j < length; j++) {
+            if (map.get(at + 4 + j) < 0) return PrototypeCatalog.fuzzyScore(keyUncached(i).toLowerCase(Locale.ROOT), lowerQuery);
+        }
+        scanKey.from = at + 4;
+        scanKey.length = length;
+        return PrototypeCatalog.fuzzyScore(scanKey, lowerQuery);
+    }
+
+    /** An ASCII string in the map, read lower-cased; reused for every entry a scan scores. */
+    private final class AsciiLower implements CharSequence {
+        int from, length;
+
+        @Override public int length() { return length; }
+
+        @Override public char charAt(int index) {
+            char c = (char) map.get(from + index);
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        @Override public CharSequence subSequence(int start, int end) { return toString().substring(start, end); }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder(length);
+            for (int k = 0; k < length; k++) sb.append(charAt(k));
+            return sb.toString();
+        }
+    }
+
+    CirclePrototype get(int i) {
+        Page p = page(i);
+        int slot = i % PAGE_ENTRIES;
+        if (p.prototypes[slot] == null) {
+            int at = entriesOff + i * ENTRY_BYTES;
+            p.prototypes[slot] = new CirclePrototype(string(map.getInt(at + 12)), map.getInt(at + 16), new Color(map.getInt(at + 20), true));
+        }
+        return p.prototypes[slot];
+    }
+
+    /** Index of the entry with this key, or -1. */
+    int find(String key) {
+        String lower = key.toLowerCase(Locale.ROOT);
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = lowerKey(mid).compareTo(lower);
+            if (c == 0) c = key(mid).compareTo(key);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Index of the first entry whose lower-cased key is not below lowerPrefix. */
+    int lowerBound(String lowerPrefix) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lowerKey(mid).compareTo(lowerPrefix) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Page page(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Entry " + i + " of " + count);
+        int number = i / PAGE_ENTRIES;
+        Page p = pages.get(number);
+        if (p == null) {
+            int from = number * PAGE_ENTRIES, n = Math.min(PAGE_ENTRIES, count - from);
+            p = new Page(n);
+            for (int j = 0; j < n; j++) {
+                p.keys[j] = string(map.getInt(entriesOff + (from + j) * ENTRY_BYTES + 8));
+                p.lowerKeys[j] = p.keys[j].toLowerCase(Locale.ROOT);
+            }
+            pages.put(number, p);
+        }
+        return p;
+    }
+
+    private String string(int offset) {
+        int at = stringsOff + offset;
+        byte[] b = new byte[map.getInt(at)];
+        for (int j = 0; j < b.length; j++) b[j] = map.get(at + 4 + j);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
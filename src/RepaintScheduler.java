@@ -0,0 +1,87 @@
+import javax.swing.*;
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+
+/**
+ * Single funnel for canvas invalidations. Everything published within one frame budget
+ * is merged into one dirty rectangle and handed to Swing as a single repaint at the next
+ * frame boundary, so input arriving faster than the frame rate cannot queue more paints
+ * than the display shows. Safe to call from any thread.
+ */
+class RepaintScheduler {
+    private final JComponent target;
+    private final long frameNanos;
+    private final Timer timer;
+
+    private volatile Consumer<Rectangle> frameSink;
+    private Rectangle pending;
+    private boolean scheduled;
+    private long lastFrame;
+    private long requests, coalesced, frames;
+
+    RepaintScheduler(JComponent target, int maxFps) {
+        if (maxFps < 1) throw new IllegalArgumentException("Frame rate must be positive: " + maxFps);
+        this.target = target;
+        this.frameNanos = 1_000_000_000L / maxFps;
+        this.timer = new Timer(0, e -> frame());
+        timer.setRepeats(false);
+    }
+
+    /** Marks an area of the target as needing a repaint. */
+    void invalidate(Rectangle area) {
+        long delayMillis;
+        synchronized (this) {
+            requests++;
+            if (pending == null) pending = new Rectangle(area);
+            else pending.add(area);
+            if (scheduled) {
+                coalesced++;
+                return;
+            }
+            scheduled = true;
+            long wait = lastFrame + frameNanos - System.nanoTime();
+            delayMillis = Math.max(0, wait / 1_000_000);
+        }
+        if (SwingUtilities.isEventDispatchThread()) start(delayMillis);
+        else SwingUtilities.invokeLater(() -> start(delayMillis));
+    }
+
+    void invalidateAll() {
+        invalidate(new Rectangle(0, 0, Math.max(1, target.getWidth()), Math.max(1, target.getHeight())));
+    }
+
+    /**
+     * Receives each frame's dirty area instead of the target's repaint(), on the EDT; lets
+     * an offscreen component be painted at the scheduler's pace. Null restores repaint().
+     */
+    void setFrameSink(Consumer<Rectangle> sink) { this.frameSink = sink; }
+
+    /** Invalidations received. */
+    synchronized long getRequests() { return requests; }
+
+    /** Invalidations merged into an already scheduled frame instead of causing their own paint. */
+    synchronized long getCoalesced() { return coalesced; }
+
+    /** Repaints actually issued to Swing. */
+    synchronized long getFrames() { return frames; }
+
+    private void start(long delayMillis) {
+        timer.setInitialDelay((int) delayMillis);
+        timer.restart();
+    }
+
+    private void frame() {
+        Rectangle area;
+        synchronized (this) {
+            area = pending;
+            pending = null;
+            scheduled = false;
+            lastFrame = System.nanoTime();
+            frames++;
+        }
+        if (area == null) return;
+        Consumer<Rectangle> sink = frameSink;
+        if (sink != null) sink.accept(area);
+        else target.repaint(area);
+    }
+}
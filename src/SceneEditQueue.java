@@ -0,0 +1,316 @@
+import javax.swing.*;
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hand-off point for threads other than the EDT that want to change the scene. The
+ * ShapeManager, its store and index are confined to the EDT, which is what lets
+ * paintComponent read them without locks. Producers fill a Batch with primitive edit
+ * records on their own thread and commit it; committed batches wait in a bounded queue
+ * and the EDT applies whole batches at frame rate, within a time budget per tick, so a
+ * batch is either fully visible or not at all and a flood of edits cannot freeze input.
+ * When the queue is full, commit blocks the producer instead of growing without bound.
+ *
+ * Each batch is one undo step. While the user has a gesture open (a drag, say) the
+ * timer leaves the queue alone, so the gesture and the batches stay separate steps; a
+ * batch drained explicitly inside a gesture joins it. Edits naming an id that no longer
+ * exists are skipped.
+ *
+ * Producers that need to read the scene, to pick ids to edit for instance, ask for a
+ * View: an immutable copy taken on the EDT between batches. The queue mirrors the scene
+ * in pages of rows, kept up to date from its edit events; a view shares the pages, and a
+ * page some view holds is copied before the next edit to it. Taking a view costs one
+ * pointer per page plus the pages edited since the last one, and views are shared while
+ * the scene is unchanged, so polling one is cheap when nothing moves.
+ */
+class SceneEditQueue {
+    private static final byte ADD = 0, MOVE = 1, RESIZE = 2, RECOLOR = 3, RELABEL = 4;
+    private static final int PAGE_BITS = 12, PAGE = 1 << PAGE_BITS, PAGE_MASK = PAGE - 1;
+
+    private final ShapeManager shapes;
+    private final BlockingQueue<Batch> queue;
+    private final long budgetNanos;
+    private final Timer timer;
+
+    private final AtomicLong committed = new AtomicLong();
+    private volatile long appliedBatches;
+    private long appliedEdits, skippedEdits;
+    // EDT only: the mirror of the scene, and the view reused until it changes
+    private Page[] pages = new Page[16];
+    private int mirrored;
+    private long epoch; // pages of an older epoch may be held by views
+    private boolean changed = true;
+    private View latest;
+
+    SceneEditQueue(ShapeManager shapes, int maxPendingBatches, int budgetMillis) {
+        if (maxPendingBatches < 1) throw new IllegalArgumentException("Queue must hold at least one batch");
+        this.shapes = shapes;
+        this.queue = new ArrayBlockingQueue<>(maxPendingBatches);
+        this.budgetNanos = budgetMillis * 1_000_000L;
+        this.timer = new Timer(15, e -> {
+            if (!shapes.inGesture()) drain(budgetNanos);
+        });
+        timer.setCoalesce(true);
+        for (int id = 0, n = shapes.size(); id < n; id++) mirror(id);
+        mirrored = shapes.size();
+        shapes.addEditListener(new SceneEditListener() {
+            @Override public void shapeEdited(int id, ShapeEdit edit) {
+                if (id < mirrored) mirror(id);
+            }
+
+            @Override public void shapesAdded(int firstId, int count) {
+                for (int id = firstId; id < firstId + count; id++) mirror(id);
+                mirrored = firstId + count;
+            }
+
+            @Override public void shapesTruncated(int size) {
+                mirrored = size;
+                Arrays.fill(pages, pageCount(size), pages.length, null);
+                changed = true;
+            }
+
+            @Override public void sceneReset() {
+                shapesTruncated(0);
+            }
+        });
+    }
+
+    /** Starts applying committed batches on the EDT. */
+    void start() { timer.start(); }
+
+    void stop() { timer.stop(); }
+
+    Batch newBatch() { return new Batch(); }
+
+    /** Queues a filled batch; blocks while maxPendingBatches are already waiting. Any thread. */
+    void commit(Batch batch) throws InterruptedException {
+        if (batch.size == 0) return;
+        batch.sealed = true;
+        queue.put(batch);
+        committed.incrementAndGet();
+    }
+
+    /** Batches committed so far; compare with getAppliedBatches to see the backlog. Any thread. */
+    long getCommittedBatches() { return committed.get(); }
+
+    /** Batches visible in the scene. Any thread. */
+    long getAppliedBatches() { return appliedBatches; }
+
+    long getAppliedEdits() { return appliedEdits; }
+
+    long getSkippedEdits() { return skippedEdits; }
+
+    /**
+     * A consistent copy of the scene as of the last applied batch. Any thread; off the
+     * EDT this waits for the EDT to take the copy.
+     */
+    View view() throws InterruptedException {
+        if (SwingUtilities.isEventDispatchThread()) return currentView();
+        FutureTask<View> task = new FutureTask<>(this::currentView);
+        SwingUtilities.invokeLater(task);
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not copy the scene", e.getCause());
+        }
+    }
+
+    private View currentView() {
+        if (changed || latest == null) {
+            latest = new View(Arrays.copyOf(pages, pageCount(mirrored)), mirrored, shapes.version(), appliedBatches);
+            epoch++; // every page is now shared with the view
+            changed = false;
+        }
+        return latest;
+    }
+
+    /** Copies row id of the scene into the mirror, copying its page first if a view holds it. */
+    private void mirror(int id) {
+        int p = id >>> PAGE_BITS;
+        if (p >= pages.length) pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+        Page page = pages[p];
+        if (page == null) page = pages[p] = new Page(epoch);
+        else if (page.epoch != epoch) page = pages[p] = page.copy(epoch);
+        ShapeStore store = shapes.getStore();
+        int i = id & PAGE_MASK;
+        page.xs[i] = store.getX(id);
+        page.ys[i] = store.getY(id);
+        page.radii[i] = store.getRadius(id);
+        page.styles[i] = store.getStyle(id);
+        changed = true;
+    }
+
+    private static int pageCount(int rows) { return (rows + PAGE_MASK) >>> PAGE_BITS; }
+
+    /**
+     * Applies queued batches on the EDT until the queue is empty or budgetNanos have
+     * passed; at least one batch is applied per call. Returns the batches applied.
+     */
+    int drain(long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        int n = 0;
+        Batch b;
+        while ((b = queue.poll()) != null) {
+            apply(b);
+            n++;
+            if (System.nanoTime() - deadline >= 0) break;
+        }
+        return n;
+    }
+
+    private void apply(Batch b) {
+        ShapeStore store = shapes.getStore();
+        shapes.beginGesture();
+        try {
+            int firstAdded = -1;
+            for (int i = 0; i < b.size; i++) {
+                if (b.ops[i] == ADD) {
+                    if (firstAdded < 0) firstAdded = store.size();
+                    store.add((String) b.objs[i], b.as[i], b.bs[i], b.cs[i], (Color) b.objs2[i]);
+                    appliedEdits++;
+                    continue;
+                }
+                if (firstAdded >= 0) { // later edits may address the shapes just added
+                    shapes.commitAppended(firstAdded);
+                    firstAdded = -1;
+                }
+                int id = b.ids[i];
+                if (id < 0 || id >= store.size()) {
+                    skippedEdits++;
+                    continue;
+                }
+                CircleShape s = store.get(id);
+                switch (b.ops[i]) {
+                    case MOVE: s.moveBy(b.as[i], b.bs[i]); break;
+                    case RESIZE: s.setRadius(b.as[i]); break;
+                    case RECOLOR: s.setColor((Color) b.objs[i]); break;
+                    case RELABEL: s.setLabel((String) b.objs[i]); break;
+                }
+                appliedEdits++;
+            }
+            if (firstAdded >= 0) shapes.commitAppended(firstAdded);
+        } finally {
+            shapes.endGesture();
+        }
+        appliedBatches++;
+        changed = true; // even if every edit was skipped, views report the batch
+    }
+
+    /** PAGE rows of the mirror; read-only once a view shares it. */
+    private static final class Page {
+        final int[] xs = new int[PAGE], ys = new int[PAGE], radii = new int[PAGE];
+        final ShapeStyle[] styles = new ShapeStyle[PAGE];
+        final long epoch;
+
+        Page(long epoch) { this.epoch = epoch; }
+
+        Page copy(long epoch) {
+            Page p = new Page(epoch);
+            System.arraycopy(xs, 0, p.xs, 0, PAGE);
+            System.arraycopy(ys, 0, p.ys, 0, PAGE);
+            System.arraycopy(radii, 0, p.radii, 0, PAGE);
+            System.arraycopy(styles, 0, p.styles, 0, PAGE);
+            return p;
+        }
+    }
+
+    /**
+     * Read-only copy of every shape, indexed by the same ids the scene used when it was
+     * taken. Safe to share between threads.
+     */
+    static final class View {
+        final long version;
+        /** Batches of this queue that the copy already includes. */
+        final long appliedBatches;
+        private final Page[] pages;
+        private final int size;
+
+        private View(Page[] pages, int size, long version, long appliedBatches) {
+            this.pages = pages;
+            this.size = size;
+            this.version = version;
+            this.appliedBatches = appliedBatches;
+        }
+
+        int size() { return size; }
+        int getX(int id) { return page(id).xs[id & PAGE_MASK]; }
+        int getY(int id) { return page(id).ys[id & PAGE_MASK]; }
+        int getRadius(int id) { return page(id).radii[id & PAGE_MASK]; }
+        Color getColor(int id) { return page(id).styles[id & PAGE_MASK].fill; }
+        String getLabel(int id) { return page(id).styles[id & PAGE_MASK].label; }
+
+        private Page page(int id) { return pages[Objects.checkIndex(id, size) >>> PAGE_BITS]; }
+    }
+
+    /**
+     * Edits recorded by one producer thread. Not thread-safe; create one per producer and
+     * do not touch it after commit.
+     */
+    static final class Batch {
+        private byte[] ops = new byte[256];
+        private int[] ids = new int[256], as = new int[256], bs = new int[256], cs = new int[256];
+        private Object[] objs = new Object[256], objs2 = new Object[256];
+        private int size;
+        private boolean sealed;
+
+        int size() { return size; }
+
+        /** Appends a shape; ids are assigned in z-order when the batch is applied. */
+        Batch add(String label, int x, int y, int radius, Color color) {
+            int i = next(ADD, -1);
+            as[i] = x;
+            bs[i] = y;
+            cs[i] = radius;
+            objs[i] = label;
+            objs2[i] = color;
+            return this;
+        }
+
+        Batch move(int id, int dx, int dy) {
+            int i = next(MOVE, id);
+            as[i] = dx;
+            bs[i] = dy;
+            return this;
+        }
+
+        Batch resize(int id, int radius) {
+            as[next(RESIZE, id)] = radius;
+            return this;
+        }
+
+        Batch recolor(int id, Color color) {
+            objs[next(RECOLOR, id)] = color;
+            return this;
+        }
+
+        Batch relabel(int id, String label) {
+            objs[next(RELABEL, id)] = label;
+            return this;
+        }
+
+        private int next(byte op, int id) {
+            if (sealed) throw new IllegalStateException("Batch already committed");
+            if (size == ops.length) grow();
+            ops[size] = op;
+            ids[size] = id;
+            return size++;
+        }
+
+        private void grow() {
+            int n = ops.length * 2;
+            ops = Arrays.copyOf(ops, n);
+            ids = Arrays.copyOf(ids, n);
+            as = Arrays.copyOf(as, n);
+            bs = Arrays.copyOf(bs, n);
+            cs = Arrays.copyOf(cs, n);
+            objs = Arrays.copyOf(objs, n);
+            objs2 = Arrays.copyOf(objs2, n);
+        }
+    }
+}
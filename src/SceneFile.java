@@ -0,0 +1,284 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary scene format. All integers are big-endian.
+ *
+ * <pre>
+ * header      magic "PSCN", version, label/color/prototype/shape counts,
+ *             and the byte offset of every section (HEADER_BYTES in total)
+ * labels      per label: int byte length + UTF-8 bytes (deduplicated)
+ * colors      per color: int ARGB (deduplicated)
+ * prototypes  per prototype: int key label, int name label, int radius, int color
+ * shapes      fixed SHAPE_BYTES records: int x, int y, int radius, int color, int label
+ * </pre>
+ *
+ * A color or label index of NONE (-1) stands for no color or no label, so a shape or
+ * prototype without one loads back without one. Version 1 files had no such marker and
+ * still load.
+ *
+ * Files are read and written through memory-mapped windows, and loading appends
+ * records straight into the ShapeStore, so a columnar scene never builds CircleShape
+ * objects.
+ */
+class SceneFile {
+    static final int MAGIC = 0x5053434E; // "PSCN"
+    static final int VERSION = 2;
+    /** Color or label index meaning null; from version 2 on. */
+    static final int NONE = -1;
+    static final int HEADER_BYTES = 64;
+    static final int SHAPE_BYTES = 20;
+    private static final int PROTOTYPE_BYTES = 16;
+    /** Shapes are mapped in windows of this many records to stay under the 2 GB mapping limit. */
+    private static final int WINDOW_RECORDS = 1 << 24;
+
+    private SceneFile() {}
+
+    /**
+     * The shapes and prototypes copied into plain arrays, so a save can run off the EDT
+     * while the scene keeps changing. Styles are immutable and shared, not copied.
+     */
+    static final class Snapshot {
+        private final int[] xs, ys, radii;
+        private final ShapeStyle[] styles;
+        private final String[] keys, names;
+        private final int[] protoRadii;
+        private final Color[] protoColors;
+
+        private Snapshot(int shapeCount, int protoCount) {
+            xs = new int[shapeCount];
+            ys = new int[shapeCount];
+            radii = new int[shapeCount];
+            styles = new ShapeStyle[shapeCount];
+            keys = new String[protoCount];
+            names = new String[protoCount];
+            protoRadii = new int[protoCount];
+            protoColors = new Color[protoCount];
+        }
+
+        /** On the thread that owns shapes and registry. */
+        static Snapshot of(ShapeManager shapes, PrototypeRegistry registry) {
+            ShapeStore store = shapes.getStore();
+            List<String> keys = new ArrayList<>(registry.keys());
+            Snapshot s = new Snapshot(store.size(), keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                CirclePrototype p = registry.getPrototypeForEdit(keys.get(i));
+                s.keys[i] = keys.get(i);
+                s.names[i] = p.getName();
+                s.protoRadii[i] = p.getRadius();
+                s.protoColors[i] = p.getColor();
+            }
+            for (int id = 0; id < s.xs.length; id++) {
+                s.xs[id] = store.getX(id);
+                s.ys[id] = store.getY(id);
+                s.radii[id] = store.getRadius(id);
+                s.styles[id] = store.getStyle(id);
+            }
+            return s;
+        }
+    }
+
+    static void save(Path file, ShapeManager shapes, PrototypeRegistry registry) throws IOException {
+        save(file, Snapshot.of(shapes, registry));
+    }
+
+    /** Writes a snapshot; any thread. The mapped pages are forced to disk before returning. */
+    static void save(Path file, Snapshot scene) throws IOException {
+        int shapeCount = scene.xs.length;
+        Table<String> labels = new Table<>();
+        Table<Integer> colors = new Table<>();
+
+        String[] keys = scene.keys;
+        int[] protoRecords = new int[keys.length * 4];
+        for (int i = 0; i < keys.length; i++) {
+            protoRecords[i*4] = labels.id(keys[i]);
+            protoRecords[i*4 + 1] = labelId(labels, scene.names[i]);
+            protoRecords[i*4 + 2] = scene.protoRadii[i];
+            protoRecords[i*4 + 3] = colorId(colors, scene.protoColors[i]);
+        }
+        int[] shapeColor = new int[shapeCount], shapeLabel = new int[shapeCount];
+        for (int id = 0; id < shapeCount; id++) {
+            shapeColor[id] = colorId(colors, scene.styles[id].fill);
+            shapeLabel[id] = labelId(labels, scene.styles[id].label);
+        }
+
+        List<byte[]> labelBytes = new ArrayList<>(labels.values.size());
+        long labelsLen = 0;
+        for (String l : labels.values) {
+            byte[] b = l.getBytes(StandardCharsets.UTF_8);
+            labelBytes.add(b);
+            labelsLen += 4 + b.length;
+        }
+        long labelsOff = HEADER_BYTES;
+        long colorsOff = labelsOff + labelsLen;
+        long protosOff = colorsOff + 4L * colors.values.size();
+        long shapesOff = protosOff + (long) PROTOTYPE_BYTES * keys.length;
+        long total = shapesOff + (long) SHAPE_BYTES * shapeCount;
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_WRITE, 0, shapesOff);
+            head.putInt(MAGIC).putInt(VERSION)
+                .putInt(labels.values.size()).putInt(colors.values.size()).putInt(keys.length).putInt(shapeCount)
+                .putLong(labelsOff).putLong(colorsOff).putLong(protosOff).putLong(shapesOff);
+            head.position((int) labelsOff);
+            for (byte[] b : labelBytes) head.putInt(b.length).put(b);
+            for (int c : colors.values) head.putInt(c);
+            for (int v : protoRecords) head.putInt(v);
+            head.force();
+
+            for (int from = 0; from < shapeCount; from += WINDOW_RECORDS) {
+                int n = Math.min(WINDOW_RECORDS, shapeCount - from);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, shapesOff + (long) from * SHAPE_BYTES, (long) n * SHAPE_BYTES);
+                for (int id = from; id < from + n; id++) {
+                    buf.putInt(scene.xs[id]).putInt(scene.ys[id]).putInt(scene.radii[id])
+                       .putInt(shapeColor[id]).putInt(shapeLabel[id]);
+                }
+                buf.force();
+            }
+            if (ch.size() != total) throw new IOException("Scene size mismatch: " + ch.size() + " != " + total);
+        }
+    }
+
+    /**
+     * Replaces the shapes and prototypes with the file's contents. Shapes are appended to
+     * the existing store backend and indexed in one pass. Every table and shape record is
+     * checked before anything is replaced, so a corrupt or truncated file leaves the scene
+     * and the registry as they were.
+     */
+    static void load(Path file, ShapeManager shapes, PrototypeRegistry registry) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES) throw new IOException("Not a scene file: " + file);
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) throw new IOException("Not a scene file: " + file);
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported scene version " + version + " in " + file);
+            int labelCount = header.getInt(), colorCount = header.getInt();
+            int protoCount = header.getInt(), shapeCount = header.getInt();
+            long labelsOff = header.getLong(), colorsOff = header.getLong();
+            long protosOff = header.getLong(), shapesOff = header.getLong();
+            if (labelCount < 0 || colorCount < 0 || protoCount < 0 || shapeCount < 0
+                    || labelsOff < HEADER_BYTES || colorsOff < labelsOff || protosOff < colorsOff || shapesOff < protosOff
+                    || colorsOff + 4L * colorCount > protosOff || protosOff + (long) PROTOTYPE_BYTES * protoCount > shapesOff
+                    || shapesOff > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt scene file: " + file);
+            }
+            if (shapesOff + (long) SHAPE_BYTES * shapeCount > ch.size()) throw new IOException("Truncated scene file: " + file);
+
+            MappedByteBuffer tables = ch.map(FileChannel.MapMode.READ_ONLY, 0, shapesOff);
+            String[] labels = new String[labelCount];
+            tables.position((int) labelsOff);
+            for (int i = 0; i < labelCount; i++) {
+                int len = tables.getInt();
+                if (len < 0 || len > tables.remaining()) throw new IOException("Corrupt scene file: " + file);
+                byte[] b = new byte[len];
+                tables.get(b);
+                labels[i] = new String(b, StandardCharsets.UTF_8);
+            }
+            if (tables.position() > colorsOff) throw new IOException("Corrupt scene file: " + file);
+            Color[] colors = new Color[colorCount];
+            tables.position((int) colorsOff);
+            for (int i = 0; i < colorCount; i++) colors[i] = new Color(tables.getInt(), true);
+
+            tables.position((int) protosOff);
+            List<String> protoKeys = new ArrayList<>(protoCount);
+            List<CirclePrototype> protos = new ArrayList<>(protoCount);
+            int none = version >= 2 ? NONE : 0; // the lowest index that is valid, or means none
+            for (int i = 0; i < protoCount; i++) {
+                String key = labels[tables.getInt()];
+                String name = entry(labels, tables.getInt(), none);
+                int radius = tables.getInt();
+                protoKeys.add(key);
+                protos.add(new CirclePrototype(name, radius, entry(colors, tables.getInt(), none)));
+            }
+            checkShapes(ch, shapesOff, shapeCount, colorCount, labelCount, none, file);
+
+            // nothing below can fail on the file's contents
+            registry.clear();
+            for (int i = 0; i < protoCount; i++) registry.register(protoKeys.get(i), protos.get(i));
+
+            shapes.clear();
+            ShapeStore store = shapes.getStore();
+            int first = store.size();
+            ColumnarShapeStore columnar = store instanceof ColumnarShapeStore ? (ColumnarShapeStore) store : null;
+            if (columnar != null) columnar.ensureCapacity(first + shapeCount);
+            // one shared style per (color, label) pair; clones come in runs, so remember the last
+            Map<Long, ShapeStyle> styles = new HashMap<>();
+            long lastKey = 0;
+            ShapeStyle style = null;
+            int styleId = -1;
+            for (int from = 0; from < shapeCount; from += WINDOW_RECORDS) {
+                int n = Math.min(WINDOW_RECORDS, shapeCount - from);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, shapesOff + (long) from * SHAPE_BYTES, (long) n * SHAPE_BYTES);
+                for (int i = 0; i < n; i++) {
+                    int x = buf.getInt(), y = buf.getInt(), r = buf.getInt(), c = buf.getInt(), l = buf.getInt();
+                    long key = (long) c << 32 | (l & 0xFFFFFFFFL);
+                    if (style == null || key != lastKey) {
+                        style = styles.computeIfAbsent(key, k -> ShapeStyle.of(c == NONE ? null : colors[c], l == NONE ? null : labels[l]));
+                        if (columnar != null) styleId = columnar.internStyle(style);
+                        lastKey = key;
+                    }
+                    if (columnar != null) columnar.addRaw(x, y, r, styleId);
+                    else store.add(style, x, y, r);
+                }
+            }
+            shapes.commitAppended(first);
+        } catch (IndexOutOfBoundsException | java.nio.BufferUnderflowException e) {
+            throw new IOException("Corrupt scene file: " + file, e);
+        }
+    }
+
+    /** Fails unless every shape record's color and label index is within its table, or none where allowed. */
+    private static void checkShapes(FileChannel ch, long shapesOff, int shapeCount, int colorCount, int labelCount, int none, Path file) throws IOException {
+        for (int from = 0; from < shapeCount; from += WINDOW_RECORDS) {
+            int n = Math.min(WINDOW_RECORDS, shapeCount - from);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, shapesOff + (long) from * SHAPE_BYTES, (long) n * SHAPE_BYTES);
+            for (int at = 12, end = n * SHAPE_BYTES; at < end; at += SHAPE_BYTES) {
+                int c = buf.getInt(at), l = buf.getInt(at + 4);
+                if (c < none || c >= colorCount || l < none || l >= labelCount) {
+                    throw new IOException("Corrupt scene file: " + file + " (shape " + (from + (at - 12) / SHAPE_BYTES) + ")");
+                }
+            }
+        }
+    }
+
+    private static int colorId(Table<Integer> colors, Color c) {
+        return c != null ? colors.id(c.getRGB()) : NONE;
+    }
+
+    private static int labelId(Table<String> labels, String l) {
+        return l != null ? labels.id(l) : NONE;
+    }
+
+    /** table[i], or null for NONE where none allows it; other bad indices throw. */
+    private static <T> T entry(T[] table, int i, int none) {
+        if (i == NONE && none == NONE) return null;
+        return table[i];
+    }
+
+    /** Insertion-ordered dedup table handing out dense ids. */
+    private static final class Table<T> {
+        final List<T> values = new ArrayList<>();
+        private final Map<T, Integer> ids = new HashMap<>();
+
+        int id(T value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                values.add(value);
+                ids.put(value, id);
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,684 @@
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-recovery autosave: an append-only log of every scene and prototype mutation,
+ * on top of a SceneFile checkpoint. Listener callbacks arrive on the EDT and only encode
+ * a few bytes into an in-memory batch, so drags cost no I/O, and the steps of a drag
+ * within one batch merge into one record. A writer thread commits the batch every
+ * commitMillis as one CRC-checked frame and forces it to disk with a single fsync
+ * (group commit). Once the log outgrows compactBytes it is folded into a fresh
+ * checkpoint between gestures.
+ *
+ * Generation g is checkpoint-g.scene plus journal-g.wal, the edits made after that
+ * checkpoint was taken. The EDT only copies the scene's columns for a checkpoint; the
+ * writer thread saves the copy to a temporary file, forces it and renames it into place,
+ * and deletes the previous generation only afterwards. open() therefore always finds the
+ * newest complete checkpoint and replays every log from its generation on, including
+ * those of a newer generation whose checkpoint never made it to disk. A torn frame at
+ * the end of a log, left by a crash mid-write, is dropped. A restarted journal always
+ * moves on to a generation newer than every file it found, so it never appends to a log
+ * it has just replayed or writes behind a torn frame.
+ *
+ * <pre>
+ * frame    int payload length, int CRC-32 of the payload, then records:
+ * STYLE    varint style number, color, string label (numbers restart with each log)
+ * ADD      varint first id, varint count, then per shape varint style, zigzag x, zigzag y, varint radius
+ * MOVE     varint id, zigzag dx, zigzag dy
+ * RESIZE   varint id, varint radius
+ * RECOLOR  varint id, color          RELABEL  varint id, string
+ * TRUNCATE varint size               RESET    no payload
+ * PROTO    string key, string name, varint radius, color
+ * UNPROTO  string key                PROTO_CLEAR  no payload
+ * PROTO_RENAME  string old key, then as PROTO
+ * color    byte 0 for none or 1 + int ARGB; string: varint UTF-8 length + 1 (0 for null) + bytes
+ * </pre>
+ */
+class SceneJournal implements SceneEditListener, PrototypeListener, AutoCloseable {
+    private static final byte STYLE = 0, ADD = 1, MOVE = 2, RESIZE = 3, RECOLOR = 4, RELABEL = 5,
+            TRUNCATE = 6, RESET = 7, PROTO = 8, UNPROTO = 9, PROTO_CLEAR = 10, PROTO_RENAME = 11;
+    private static final int FRAME_HEADER = 8;
+    /** A batch this large is committed without waiting for the interval to pass. */
+    private static final int EAGER_COMMIT_BYTES = 1 << 20;
+
+    private final Path dir;
+    private final ShapeManager shapes;
+    private final PrototypeRegistry registry;
+    private final long commitMillis;
+    private final long compactBytes;
+
+    // EDT side
+    private int generation;
+    private final Map<ShapeStyle, Integer> styleNumbers = new HashMap<>();
+    private ShapeStyle lastStyle;
+    private int lastStyleNumber;
+    private long logBytes;          // encoded since the last checkpoint
+    private boolean inGesture, compactQueued;
+    private Batch moveBatch;        // where the last MOVE record went, for merging drag steps
+    private int moveStart, moveEnd, moveId, moveDx, moveDy;
+
+    // shared with the writer, guarded by lock
+    private final Object lock = new Object();
+    private Batch filling;
+    private final ArrayDeque<Batch> sealed = new ArrayDeque<>();
+    private long appended, committed; // batch sequence numbers
+    private int deleteBelow;          // generations older than this are obsolete
+    private SceneFile.Snapshot pendingCheckpoint; // the newest copy not yet saved
+    private int pendingGeneration;
+    private boolean closing;
+    private IOException failure;
+
+    private final Thread writer;
+
+    // writer side
+    private FileChannel channel;
+    private int channelGeneration = -1;
+    private int deletedBelow;
+
+    // recovery results, for the app to report
+    private boolean restoredCheckpoint;
+    private int replayedRecords;
+    private long droppedBytes;
+
+    /** One generation's records waiting to be committed. */
+    private static final class Batch {
+        final int generation;
+        byte[] bytes = new byte[4096];
+        int length = FRAME_HEADER; // room for the frame header
+
+        Batch(int generation) { this.generation = generation; }
+
+        boolean isEmpty() { return length == FRAME_HEADER; }
+
+        void put(int b) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[length++] = (byte) b;
+        }
+    }
+
+    private SceneJournal(Path dir, ShapeManager shapes, PrototypeRegistry registry, int generation, int restoredFrom,
+                         long commitMillis, long compactBytes) {
+        this.dir = dir;
+        this.shapes = shapes;
+        this.registry = registry;
+        this.generation = generation;
+        this.deleteBelow = restoredFrom; // older leftovers are swept right away, the rest after the first checkpoint
+        this.commitMillis = commitMillis;
+        this.compactBytes = compactBytes;
+        this.filling = new Batch(generation);
+        writer = new Thread(this::run, "scene-journal-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Restores the newest checkpoint in dir into shapes and registry and replays the logs
+     * after it, then returns a journal that continues from there; call attach() once the
+     * app's own setup is done. An empty or missing dir yields a journal over an untouched
+     * scene. Throws when a checkpoint or log cannot be read, leaving the files alone.
+     */
+    static SceneJournal open(Path dir, ShapeManager shapes, PrototypeRegistry registry, long commitMillis, long compactBytes) throws IOException {
+        Files.createDirectories(dir);
+        TreeSet<Integer> checkpoints = new TreeSet<>(), logs = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                if (name.matches("checkpoint-\\d+\\.scene")) checkpoints.add(generationOf(name));
+                else if (name.matches("journal-\\d+\\.wal")) logs.add(generationOf(name));
+            }
+        }
+        int newest = checkpoints.isEmpty() ? 0 : checkpoints.last();
+        // continue after every existing file, so no log that was replayed is ever appended to
+        int last = Math.max(newest, logs.isEmpty() ? 0 : logs.last());
+        SceneJournal journal = new SceneJournal(dir, shapes, registry, last, newest, commitMillis, compactBytes);
+        if (!checkpoints.isEmpty()) {
+            SceneFile.load(journal.checkpointFile(newest), shapes, registry);
+            journal.restoredCheckpoint = true;
+        }
+        // a generation without edits has no log, so gaps are expected; a torn log is the
+        // last one of a crashed session, and the logs after it come from later sessions
+        for (int g : logs.tailSet(newest)) journal.replay(journal.logFile(g));
+        return journal;
+    }
+
+    private static int generationOf(String name) {
+        return Integer.parseInt(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+    }
+
+    private Path checkpointFile(int g) { return dir.resolve("checkpoint-" + g + ".scene"); }
+
+    private Path logFile(int g) { return dir.resolve("journal-" + g + ".wal"); }
+
+    /** Whether open() found anything to restore. */
+    boolean restoredState() { return restoredCheckpoint || replayedRecords > 0; }
+
+    int getReplayedRecords() { return replayedRecords; }
+
+    /** Bytes of a torn frame discarded from the end of the log. */
+    long getDroppedBytes() { return droppedBytes; }
+
+    /**
+     * Starts journaling: takes a checkpoint of the current scene, so recovery never
+     * replays a log twice, and listens to every later change. On the EDT.
+     */
+    void attach() {
+        writer.start();
+        checkpoint();
+        shapes.addEditListener(this);
+        registry.addListener(this);
+    }
+
+    /**
+     * Rolls over to a new generation and queues a copy of the scene as its checkpoint.
+     * Records made before the call go to the old log, later ones to the new. On the EDT,
+     * which only copies the columns; the writer thread saves the copy and retires the
+     * previous generation. A copy still waiting when the next one arrives is dropped.
+     */
+    void checkpoint() {
+        int next = generation + 1;
+        SceneFile.Snapshot scene = SceneFile.Snapshot.of(shapes, registry);
+        synchronized (lock) {
+            if (!filling.isEmpty()) {
+                sealed.add(filling);
+                appended++;
+            }
+            filling = new Batch(next);
+            pendingCheckpoint = scene;
+            pendingGeneration = next;
+            lock.notifyAll();
+        }
+        generation = next;
+        styleNumbers.clear();
+        lastStyle = null;
+        logBytes = 0;
+    }
+
+    /** Waits until every record encoded so far is on disk. Any thread. */
+    void sync() throws IOException, InterruptedException {
+        synchronized (lock) {
+            if (!filling.isEmpty()) {
+                sealed.add(filling);
+                filling = new Batch(filling.generation);
+                appended++;
+                lock.notifyAll();
+            }
+            long target = appended;
+            while (committed < target && failure == null) lock.wait();
+            if (failure != null) throw failure;
+        }
+    }
+
+    /** Commits what is pending and stops the writer; later edits are not journaled. */
+    @Override public void close() throws IOException, InterruptedException {
+        shapes.removeEditListener(this);
+        registry.removeListener(this);
+        synchronized (lock) {
+            closing = true;
+            lock.notifyAll();
+        }
+        if (writer.isAlive()) writer.join();
+        synchronized (lock) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    // ---- encoding, on the EDT ----
+
+    @Override public void shapeEdited(int id, ShapeEdit e) {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            switch (e.kind) {
+                case MOVE: {
+                    int dx = e.a, dy = e.b;
+                    if (inGesture && b == moveBatch && b.length == moveEnd && id == moveId) {
+                        // the shape's previous move is the batch's last record: fold this one into it
+                        logBytes -= b.length - moveStart;
+                        b.length = start = moveStart;
+                        dx += moveDx;
+                        dy += moveDy;
+                    }
+                    b.put(MOVE);
+                    putVarint(b, id);
+                    putZigzag(b, dx);
+                    putZigzag(b, dy);
+                    moveBatch = b;
+                    moveStart = start;
+                    moveEnd = b.length;
+                    moveId = id;
+                    moveDx = dx;
+                    moveDy = dy;
+                    break;
+                }
+                case RESIZE:
+                    b.put(RESIZE);
+                    putVarint(b, id);
+                    putVarint(b, e.b);
+                    break;
+                case RECOLOR:
+                    b.put(RECOLOR);
+                    putVarint(b, id);
+                    putColor(b, (Color) e.after);
+                    break;
+                case RELABEL:
+                    b.put(RELABEL);
+                    putVarint(b, id);
+                    putString(b, (String) e.after);
+                    break;
+            }
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void shapesAdded(int firstId, int count) {
+        ShapeStore store = shapes.getStore();
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            // styles first, so the ADD record itself is only numbers
+            for (int id = firstId; id < firstId + count; id++) styleNumber(b, store.getStyle(id));
+            b.put(ADD);
+            putVarint(b, firstId);
+            putVarint(b, count);
+            for (int id = firstId; id < firstId + count; id++) {
+                putVarint(b, styleNumber(null, store.getStyle(id)));
+                putZigzag(b, store.getX(id));
+                putZigzag(b, store.getY(id));
+                putVarint(b, store.getRadius(id));
+            }
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void shapesTruncated(int size) {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            b.put(TRUNCATE);
+            putVarint(b, size);
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void sceneReset() {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            b.put(RESET);
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void gestureStarted() { inGesture = true; }
+
+    @Override public void gestureEnded() {
+        inGesture = false;
+        maybeCompact();
+    }
+
+    @Override public void prototypeRegistered(String key, CirclePrototype proto) {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            b.put(PROTO);
+            putString(b, key);
+            putString(b, proto.getName());
+            putVarint(b, proto.getRadius());
+            putColor(b, proto.getColor());
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void prototypeRenamed(String oldKey, String newKey, CirclePrototype proto) {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            b.put(PROTO_RENAME);
+            putString(b, oldKey);
+            putString(b, newKey);
+            putString(b, proto.getName());
+            putVarint(b, proto.getRadius());
+            putColor(b, proto.getColor());
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void prototypeRemoved(String key) {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            b.put(UNPROTO);
+            putString(b, key);
+            appendedBytes(b, start);
+        }
+    }
+
+    @Override public void prototypesCleared() {
+        synchronized (lock) {
+            Batch b = filling;
+            int start = b.length;
+            b.put(PROTO_CLEAR);
+            appendedBytes(b, start);
+        }
+    }
+
+    /** The style's number in the current log, defining it in b first if it is new there; b is null when it must exist. */
+    private int styleNumber(Batch b, ShapeStyle style) {
+        if (style == lastStyle) return lastStyleNumber; // clones come in runs
+        Integer n = styleNumbers.get(style);
+        if (n == null) {
+            n = styleNumbers.size();
+            styleNumbers.put(style, n);
+            b.put(STYLE);
+            putVarint(b, n);
+            putColor(b, style.fill);
+            putString(b, style.label);
+        }
+        lastStyle = style;
+        lastStyleNumber = n;
+        return n;
+    }
+
+    /** Under lock: wakes the writer for a new or oversized batch and checks the log size. */
+    private void appendedBytes(Batch b, int start) {
+        if (start == FRAME_HEADER || b.length >= EAGER_COMMIT_BYTES) lock.notifyAll();
+        logBytes += b.length - start;
+        if (logBytes >= compactBytes && !inGesture) maybeCompact();
+    }
+
+    /** Queues a checkpoint for after the current event once the log is big enough and no gesture runs. */
+    private void maybeCompact() {
+        if (logBytes < compactBytes || inGesture || compactQueued) return;
+        compactQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            compactQueued = false;
+            if (inGesture || logBytes < compactBytes) return;
+            checkpoint();
+        });
+    }
+
+    private static void putVarint(Batch b, long v) {
+        while ((v & ~0x7FL) != 0) {
+            b.put((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        b.put((int) v);
+    }
+
+    private static void putZigzag(Batch b, int v) {
+        putVarint(b, (v << 1 ^ v >> 31) & 0xFFFFFFFFL);
+    }
+
+    private static void putColor(Batch b, Color c) {
+        if (c == null) {
+            b.put(0);
+            return;
+        }
+        int argb = c.getRGB();
+        b.put(1);
+        b.put(argb >>> 24);
+        b.put(argb >>> 16);
+        b.put(argb >>> 8);
+        b.put(argb);
+    }
+
+    private static void putString(Batch b, String s) {
+        if (s == null) {
+            b.put(0);
+            return;
+        }
+        byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(b, utf.length + 1L);
+        for (byte x : utf) b.put(x);
+    }
+
+    // ---- writer thread ----
+
+    private void run() {
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                List<Batch> batches = new ArrayList<>();
+                long upTo;
+                int obsolete;
+                boolean last;
+                SceneFile.Snapshot scene;
+                int sceneGeneration;
+                synchronized (lock) {
+                    while (filling.isEmpty() && sealed.isEmpty() && pendingCheckpoint == null && deleteBelow == deletedBelow && !closing) lock.wait();
+                    // let the rest of this commit window's records join the batch
+                    if (!closing && filling.length < EAGER_COMMIT_BYTES && sealed.isEmpty() && pendingCheckpoint == null) lock.wait(commitMillis);
+                    if (!filling.isEmpty()) {
+                        sealed.add(filling);
+                        filling = new Batch(filling.generation);
+                        appended++;
+                    }
+                    batches.addAll(sealed);
+                    sealed.clear();
+                    upTo = appended;
+                    scene = pendingCheckpoint;
+                    sceneGeneration = pendingGeneration;
+                    pendingCheckpoint = null;
+                    last = closing;
+                }
+                for (Batch b : batches) write(b, crc);
+                if (channel != null) channel.force(false); // one fsync per commit
+                if (scene != null && saveCheckpoint(sceneGeneration, scene)) {
+                    synchronized (lock) {
+                        deleteBelow = Math.max(deleteBelow, sceneGeneration);
+                    }
+                }
+                synchronized (lock) {
+                    obsolete = deleteBelow;
+                }
+                if (obsolete > deletedBelow) deleteGenerations(obsolete);
+                synchronized (lock) {
+                    committed = Math.max(committed, upTo);
+                    lock.notifyAll();
+                }
+                if (last) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Autosave journal disabled: " + e.getMessage());
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void write(Batch b, CRC32 crc) throws IOException {
+        if (b.generation != channelGeneration) {
+            if (channel != null) channel.force(false);
+            closeChannel();
+            channel = FileChannel.open(logFile(b.generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channelGeneration = b.generation;
+        }
+        int payload = b.length - FRAME_HEADER;
+        crc.reset();
+        crc.update(b.bytes, FRAME_HEADER, payload);
+        ByteBuffer frame = ByteBuffer.wrap(b.bytes, 0, b.length);
+        frame.putInt(0, payload).putInt(4, (int) crc.getValue());
+        while (frame.hasRemaining()) channel.write(frame);
+    }
+
+    /**
+     * Saves checkpoint g through a temporary file; false if that failed, in which case the
+     * older generations stay and recovery replays their logs instead.
+     */
+    private boolean saveCheckpoint(int g, SceneFile.Snapshot scene) {
+        Path tmp = dir.resolve("checkpoint-" + g + ".tmp");
+        try {
+            SceneFile.save(tmp, scene);
+            Files.move(tmp, checkpointFile(g), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Autosave checkpoint failed: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+            return false;
+        }
+    }
+
+    /** Deletes the checkpoints and logs of generations before g; their edits are in checkpoint g. */
+    private void deleteGenerations(int g) throws IOException {
+        if (channelGeneration < g) closeChannel();
+        for (int old = deletedBelow; old < g; old++) {
+            Files.deleteIfExists(logFile(old));
+            Files.deleteIfExists(checkpointFile(old));
+        }
+        deletedBelow = g;
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+        channelGeneration = -1;
+    }
+
+    // ---- replay, during open() ----
+
+    /** Applies every intact frame of a log; a torn or corrupt frame ends it. */
+    private void replay(Path log) throws IOException {
+        byte[] data = Files.readAllBytes(log);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        List<ShapeStyle> styles = new ArrayList<>();
+        while (in.remaining() >= FRAME_HEADER) {
+            int start = in.position();
+            int length = in.getInt(), sum = in.getInt();
+            boolean intact = length >= 0 && length <= in.remaining();
+            if (intact) {
+                crc.reset();
+                crc.update(data, in.position(), length);
+                intact = (int) crc.getValue() == sum;
+            }
+            if (!intact) {
+                in.position(start);
+                break;
+            }
+            ByteBuffer frame = ByteBuffer.wrap(data, in.position(), length);
+            in.position(in.position() + length);
+            try {
+                while (frame.hasRemaining()) apply(frame, styles);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt autosave record in " + log + " at byte " + start, e);
+            }
+        }
+        droppedBytes += in.remaining();
+    }
+
+    private void apply(ByteBuffer in, List<ShapeStyle> styles) {
+        ShapeStore store = shapes.getStore();
+        byte type = in.get();
+        replayedRecords++;
+        switch (type) {
+            case STYLE: {
+                int n = (int) getVarint(in);
+                if (n != styles.size()) throw new IllegalStateException("Style " + n + " out of order");
+                Color fill = getColor(in);
+                styles.add(ShapeStyle.of(fill, getString(in)));
+                break;
+            }
+            case ADD: {
+                int first = (int) getVarint(in), count = (int) getVarint(in);
+                if (first != store.size()) throw new IllegalStateException("Shapes added at " + first + " to a scene of " + store.size());
+                for (int i = 0; i < count; i++) {
+                    ShapeStyle style = styles.get((int) getVarint(in));
+                    int x = getZigzag(in), y = getZigzag(in);
+                    store.add(style, x, y, (int) getVarint(in));
+                }
+                shapes.commitAppended(first);
+                break;
+            }
+            case MOVE: {
+                CircleShape s = shape(store, (int) getVarint(in));
+                int dx = getZigzag(in);
+                s.moveBy(dx, getZigzag(in));
+                break;
+            }
+            case RESIZE: {
+                CircleShape s = shape(store, (int) getVarint(in));
+                s.setRadius((int) getVarint(in));
+                break;
+            }
+            case RECOLOR: shape(store, (int) getVarint(in)).setColor(getColor(in)); break;
+            case RELABEL: shape(store, (int) getVarint(in)).setLabel(getString(in)); break;
+            case TRUNCATE: shapes.truncate((int) getVarint(in)); break;
+            case RESET: shapes.clear(); break;
+            case PROTO: {
+                String key = getString(in), name = getString(in);
+                int radius = (int) getVarint(in);
+                registry.register(key, new CirclePrototype(name, radius, getColor(in)));
+                break;
+            }
+            case PROTO_RENAME: {
+                String oldKey = getString(in), key = getString(in), name = getString(in);
+                int radius = (int) getVarint(in);
+                registry.rename(oldKey, key, new CirclePrototype(name, radius, getColor(in)));
+                break;
+            }
+            case UNPROTO: registry.remove(getString(in)); break;
+            case PROTO_CLEAR: registry.clear(); break;
+            default: throw new IllegalStateException("Unknown record type " + type);
+        }
+    }
+
+    private static CircleShape shape(ShapeStore store, int id) {
+        if (id >= store.size()) throw new IllegalStateException("No shape " + id + " in a scene of " + store.size());
+        return store.get(id);
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private static int getZigzag(ByteBuffer in) {
+        int v = (int) getVarint(in);
+        return v >>> 1 ^ -(v & 1);
+    }
+
+    private static Color getColor(ByteBuffer in) {
+        return in.get() == 0 ? null : new Color(in.getInt(), true);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int n = (int) getVarint(in);
+        if (n == 0) return null;
+        String s = new String(in.array(), in.arrayOffset() + in.position(), n - 1, StandardCharsets.UTF_8);
+        in.position(in.position() + n - 1);
+        return s;
+    }
+}
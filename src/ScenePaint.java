@@ -0,0 +1,54 @@
+import java.awt.*;
+
+/**
+ * Drawing shared by the canvas and the off-screen renderers (TiledExporter,
+ * ThumbnailService), so an exported PNG or a thumbnail looks like the canvas without
+ * either of them reaching into a Swing component. Stateless; safe from any thread.
+ */
+final class ScenePaint {
+    /** Opacity of the vignette rings and of every shape drawn over the background. */
+    static final AlphaComposite VIGNETTE_ALPHA = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.06f);
+
+    private ScenePaint() {}
+
+    /** Styled fill and vignette for a w x h area at the origin; leaves g with VIGNETTE_ALPHA. */
+    static void paintBackground(Graphics2D g2, int w, int h) {
+        g2.setColor(new Color(40, 44, 52));
+        g2.fillRect(0, 0, w, h);
+
+        // subtle radial vignette for style
+        g2.setComposite(VIGNETTE_ALPHA);
+        g2.setColor(new Color(0, 0, 0));
+        for (int i = 0; i < 6; i++) {
+            g2.fillOval(-w/2 + i*30, -h/2 + i*30, w + i*60, h + i*60);
+        }
+    }
+
+    /**
+     * A plain disc of radius r centered at (cx, cy), written span by span into an INT_RGB
+     * raster at the shapes' VIGNETTE_ALPHA opacity; a single pixel below a radius of one.
+     * Much cheaper than fillOval for the many tiny shapes of a zoomed-out scene.
+     */
+    static void fillDot(int[] raster, int rasterW, Rectangle clip, double cx, double cy, double r, int rgb) {
+        if (r < 1) {
+            int px = (int) Math.floor(cx), py = (int) Math.floor(cy);
+            if (clip.contains(px, py)) raster[py * rasterW + px] = blend(raster[py * rasterW + px], rgb);
+            return;
+        }
+        int y0 = Math.max(clip.y, (int) Math.ceil(cy - r - 0.5)), y1 = Math.min(clip.y + clip.height - 1, (int) Math.floor(cy + r - 0.5));
+        for (int y = y0; y <= y1; y++) {
+            double dy = y + 0.5 - cy, half = Math.sqrt(r * r - dy * dy);
+            int x0 = Math.max(clip.x, (int) Math.ceil(cx - half - 0.5)), x1 = Math.min(clip.x + clip.width - 1, (int) Math.floor(cx + half - 0.5));
+            for (int i = y * rasterW + x0, end = y * rasterW + x1; i <= end; i++) raster[i] = blend(raster[i], rgb);
+        }
+    }
+
+    /** src over dst at the shapes' VIGNETTE_ALPHA opacity (15/256). */
+    private static int blend(int dst, int src) {
+        int r = dst >> 16 & 0xFF, gr = dst >> 8 & 0xFF, b = dst & 0xFF;
+        r += ((src >> 16 & 0xFF) - r) * 15 >> 8;
+        gr += ((src >> 8 & 0xFF) - gr) * 15 >> 8;
+        b += ((src & 0xFF) - b) * 15 >> 8;
+        return r << 16 | gr << 8 | b;
+    }
+}
@@ -0,0 +1,205 @@
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over shape paint bounds used by ShapeManager for hit-testing and
+ * clip queries. Each shape id is listed in every cell its bounds touch; a point query
+ * only inspects the shapes of a single cell. Ids are also z-order, so the topmost
+ * hit is simply the largest matching id.
+ */
+class ShapeGridIndex {
+    private final ShapeStore store;
+    private final int cellSize;
+    private final CellMap cells = new CellMap();
+    // range of cells ever filled since the last clear; bounds every query
+    private int minCx = Integer.MAX_VALUE, minCy = Integer.MAX_VALUE;
+    private int maxCx = Integer.MIN_VALUE, maxCy = Integer.MIN_VALUE;
+
+    ShapeGridIndex(ShapeStore store, int cellSize) {
+        this.store = store;
+        this.cellSize = cellSize;
+    }
+
+    void insert(int id) {
+        insert(id, store.getPaintBounds(id));
+    }
+
+    void remove(int id, Rectangle bounds) {
+        int c0 = cell(bounds.x), c1 = cell(bounds.x + bounds.width - 1);
+        int r0 = cell(bounds.y), r1 = cell(bounds.y + bounds.height - 1);
+        for (int cy = r0; cy <= r1; cy++) {
+            for (int cx = c0; cx <= c1; cx++) {
+                Bucket bucket = cells.get(key(cx, cy));
+                if (bucket != null) bucket.remove(id);
+            }
+        }
+    }
+
+    /** Re-files a shape whose paint bounds changed. */
+    void update(int id, Rectangle oldBounds, Rectangle newBounds) {
+        if (cell(oldBounds.x) == cell(newBounds.x)
+                && cell(oldBounds.y) == cell(newBounds.y)
+                && cell(oldBounds.x + oldBounds.width - 1) == cell(newBounds.x + newBounds.width - 1)
+                && cell(oldBounds.y + oldBounds.height - 1) == cell(newBounds.y + newBounds.height - 1)) {
+            return; // still covers the same cells
+        }
+        remove(id, oldBounds);
+        insert(id, newBounds);
+    }
+
+    /**
+     * Returns the id of the topmost shape containing the point, or -1.
+     */
+    int topmostAt(int px, int py) {
+        Bucket bucket = cells.get(key(cell(px), cell(py)));
+        if (bucket == null) return -1;
+        int best = -1;
+        for (int i = 0; i < bucket.size; i++) {
+            int id = bucket.ids[i];
+            if (id > best && store.contains(id, px, py)) best = id;
+        }
+        return best;
+    }
+
+    /**
+     * Ids of every shape whose paint bounds intersect the area, ascending (back to front).
+     * A shape is reported only from the first of its cells inside the queried range, so
+     * no de-duplication set is needed.
+     */
+    int[] query(Rectangle area) {
+        int q0 = Math.max(minCx, cell(area.x)), q1 = Math.min(maxCx, cell(area.x + area.width - 1));
+        int p0 = Math.max(minCy, cell(area.y)), p1 = Math.min(maxCy, cell(area.y + area.height - 1));
+        int[] out = new int[16];
+        int n = 0;
+        for (int cy = p0; cy <= p1; cy++) {
+            for (int cx = q0; cx <= q1; cx++) {
+                Bucket bucket = cells.get(key(cx, cy));
+                if (bucket == null) continue;
+                for (int i = 0; i < bucket.size; i++) {
+                    int id = bucket.ids[i];
+                    Rectangle b = store.getPaintBounds(id);
+                    if (Math.max(cell(b.x), q0) == cx && Math.max(cell(b.y), p0) == cy && b.intersects(area)) {
+                        if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                        out[n++] = id;
+                    }
+                }
+            }
+        }
+        out = Arrays.copyOf(out, n);
+        Arrays.sort(out);
+        return out;
+    }
+
+    /**
+     * Cell-aligned rectangle around everything inserted since the last clear, or null if
+     * nothing was. It may be larger than the shapes still present.
+     */
+    Rectangle extent() {
+        if (minCx > maxCx) return null;
+        return new Rectangle(minCx * cellSize, minCy * cellSize, (maxCx - minCx + 1) * cellSize, (maxCy - minCy + 1) * cellSize);
+    }
+
+    void clear() {
+        cells.clear();
+        minCx = minCy = Integer.MAX_VALUE;
+        maxCx = maxCy = Integer.MIN_VALUE;
+    }
+
+    void insert(int id, Rectangle bounds) {
+        int c0 = cell(bounds.x), c1 = cell(bounds.x + bounds.width - 1);
+        int r0 = cell(bounds.y), r1 = cell(bounds.y + bounds.height - 1);
+        if (c0 < minCx) minCx = c0;
+        if (c1 > maxCx) maxCx = c1;
+        if (r0 < minCy) minCy = r0;
+        if (r1 > maxCy) maxCy = r1;
+        for (int cy = r0; cy <= r1; cy++) {
+            for (int cx = c0; cx <= c1; cx++) {
+                cells.getOrCreate(key(cx, cy)).add(id);
+            }
+        }
+    }
+
+    private int cell(int v) {
+        return Math.floorDiv(v, cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /**
+     * Open-addressing map from packed cell key to bucket; avoids boxing a Long per lookup.
+     * Emptied buckets are kept, as cells tend to be refilled while dragging.
+     */
+    private static final class CellMap {
+        private long[] keys = new long[1024];
+        private Bucket[] buckets = new Bucket[1024];
+        private int size;
+
+        Bucket get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; buckets[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return buckets[i];
+            }
+            return null;
+        }
+
+        Bucket getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            for (; buckets[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return buckets[i];
+            }
+            Bucket b = new Bucket();
+            keys[i] = key;
+            buckets[i] = b;
+            if (++size * 2 > keys.length) rehash();
+            return b;
+        }
+
+        void clear() {
+            Arrays.fill(buckets, null);
+            size = 0;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            Bucket[] oldBuckets = buckets;
+            keys = new long[oldKeys.length * 2];
+            buckets = new Bucket[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldBuckets[j] == null) continue;
+                int i = mix(oldKeys[j]) & mask;
+                while (buckets[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                buckets[i] = oldBuckets[j];
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /** Unordered id list of one cell. */
+    private static final class Bucket {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.awt.*;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable look of a circle apart from its position and size: fill, the outline color
+ * derived from it, and the label with its measured width. Styles are interned, so every
+ * clone of a prototype points at the prototype's instance and an inspector edit swaps
+ * in another shared instance instead of mutating one. Interning is weak: a style stays
+ * in the table only while a shape, prototype or undo record still uses it, so relabeling
+ * thousands of shapes does not grow the table forever. Strokes and the derived label font
+ * are shared by all styles.
+ */
+final class ShapeStyle {
+    static final BasicStroke OUTLINE_STROKE = new BasicStroke(2f);
+    static final BasicStroke SELECTED_STROKE = new BasicStroke(4f);
+
+    // guarded by itself; the values are weak too, or they would keep their own keys alive
+    private static final Map<ShapeStyle, WeakReference<ShapeStyle>> INTERNED = new WeakHashMap<>();
+    private static volatile Font[] labelFont = {null, null}; // last base font and its bold 12pt derivation
+
+    final Color fill;
+    final Color outline;
+    final String label;
+    private final String text; // label as drawn, never null
+    private volatile long measured = -1; // label font generation << 32 | label width
+
+    private ShapeStyle(Color fill, String label) {
+        this.fill = fill;
+        this.outline = fill != null ? fill.darker().darker() : Color.DARK_GRAY;
+        this.label = label;
+        this.text = label != null ? label : "";
+    }
+
+    /** The shared style for this fill and label. */
+    static ShapeStyle of(Color fill, String label) {
+        ShapeStyle probe = new ShapeStyle(fill, label);
+        synchronized (INTERNED) {
+            WeakReference<ShapeStyle> ref = INTERNED.get(probe);
+            ShapeStyle shared = ref != null ? ref.get() : null;
+            if (shared != null) return shared;
+            INTERNED.put(probe, new WeakReference<>(probe));
+            return probe;
+        }
+    }
+
+    ShapeStyle withColor(Color c) { return Objects.equals(c, fill) ? this : of(c, label); }
+
+    ShapeStyle withLabel(String l) { return Objects.equals(l, label) ? this : of(fill, l); }
+
+    /** Label text as drawn; empty for a null label. */
+    String text() { return text; }
+
+    /** Width of the label in the bold 12pt label font, measured once per style and label font. */
+    int labelWidth() {
+        long m = measured;
+        int generation = CircleShape.labelFontGeneration();
+        if (m >= 0 && (int) (m >>> 32) == generation) return (int) m;
+        int w = CircleShape.measureLabel(text);
+        measured = (long) generation << 32 | w;
+        return w;
+    }
+
+    /** Distinct styles still in use, give or take those the collector has not cleared yet. */
+    static int internedCount() {
+        synchronized (INTERNED) { return INTERNED.size(); }
+    }
+
+    /** Bold 12pt variant of the canvas font, derived once while the base font stays the same. */
+    static Font labelFont(Font base) {
+        Font[] cached = labelFont;
+        if (cached[0] != base) {
+            cached = new Font[]{base, base.deriveFont(Font.BOLD, 12f)};
+            labelFont = cached;
+        }
+        return cached[1];
+    }
+
+    @Override public boolean equals(Object o) {
+        if (!(o instanceof ShapeStyle)) return false;
+        ShapeStyle s = (ShapeStyle) o;
+        return Objects.equals(fill, s.fill) && Objects.equals(label, s.label);
+    }
+
+    @Override public int hashCode() { return 31 * Objects.hashCode(fill) + Objects.hashCode(label); }
+}
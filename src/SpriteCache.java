@@ -0,0 +1,135 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pre-rendered, antialiased images of circles keyed by everything that affects their
+ * pixels except position. Clones sharing radius and ShapeStyle share one sprite, so
+ * drawing them is a single blit. Least recently used sprites are evicted once the cached
+ * pixels exceed the memory budget.
+ */
+class SpriteCache {
+    private final long budgetBytes;
+    private final LinkedHashMap<Key, Sprite> sprites = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits, misses, evictions;
+
+    SpriteCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** Blits the sprite for the shape, rendering it first on a miss. */
+    void draw(Graphics2D g, CircleShape s, boolean selected) {
+        draw(g, s.getX(), s.getY(), s.getRadius(), s.getStyle(), selected);
+    }
+
+    /** Same as draw(g, shape, selected) but reads the columns without creating a handle. */
+    void draw(Graphics2D g, ShapeStore store, int id, boolean selected) {
+        draw(g, store.getX(id), store.getY(id), store.getRadius(id), store.getStyle(id), selected);
+    }
+
+    void draw(Graphics2D g, int x, int y, int radius, ShapeStyle style, boolean selected) {
+        Key key = new Key(radius, style, selected, g.getFont());
+        Sprite sprite = sprites.get(key);
+        if (sprite == null) {
+            misses++;
+            sprite = render(key);
+            sprites.put(key, sprite);
+            bytes += sprite.bytes();
+            evict();
+        } else {
+            hits++;
+        }
+        g.drawImage(sprite.image, x - sprite.originX, y - sprite.originY, null);
+    }
+
+    long getHits() { return hits; }
+    long getMisses() { return misses; }
+    long getEvictions() { return evictions; }
+    long getBytes() { return bytes; }
+    int size() { return sprites.size(); }
+
+    void clear() {
+        for (Sprite sp : sprites.values()) sp.image.flush();
+        sprites.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Sprite>> it = sprites.entrySet().iterator();
+        // keep at least the sprite just added, even if it alone exceeds the budget
+        while (bytes > budgetBytes && sprites.size() > 1 && it.hasNext()) {
+            Sprite eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.bytes();
+            eldest.image.flush();
+            evictions++;
+        }
+    }
+
+    private static Sprite render(Key key) {
+        Font font = key.font.deriveFont(Font.BOLD, 12f);
+        FontMetrics fm = metrics(font);
+        String lbl = key.style.text();
+        int r = key.radius;
+        int half = Math.max(r, (fm.stringWidth(lbl) + 1) / 2) + 3;
+        int baseline = fm.getAscent()/2 - 2;
+        int top = Math.min(-r - 3, baseline - fm.getAscent());
+        int bottom = Math.max(r + 3, baseline + fm.getDescent());
+
+        BufferedImage img = new BufferedImage(half*2 + 1, bottom - top + 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setFont(key.font);
+        CircleShape.paint(g, half, -top, r, key.style, key.selected);
+        g.dispose();
+        return new Sprite(img, half, -top);
+    }
+
+    private static FontMetrics metrics(Font font) {
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        FontMetrics fm = g.getFontMetrics(font);
+        g.dispose();
+        return fm;
+    }
+
+    private static final class Sprite {
+        final BufferedImage image;
+        final int originX, originY;
+
+        Sprite(BufferedImage image, int originX, int originY) {
+            this.image = image;
+            this.originX = originX;
+            this.originY = originY;
+        }
+
+        long bytes() { return (long) image.getWidth() * image.getHeight() * 4; }
+    }
+
+    private static final class Key {
+        final int radius;
+        final ShapeStyle style;
+        final boolean selected;
+        final Font font;
+        private final int hash;
+
+        Key(int radius, ShapeStyle style, boolean selected, Font font) {
+            this.radius = radius;
+            this.style = style;
+            this.selected = selected;
+            this.font = font;
+            this.hash = (31 * (31 * radius + style.hashCode()) + Objects.hashCode(font)) * 2 + (selected ? 1 : 0);
+        }
+
+        @Override public int hashCode() { return hash; }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return radius == k.radius && selected == k.selected && hash == k.hash
+                    && (style == k.style || style.equals(k.style)) && Objects.equals(font, k.font);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless scene-to-thumbnail rendering. Each job loads a saved scene into its own
+ * ShapeManager and PrototypeRegistry, confined to the job's thread, draws it with
+ * CircleShape.paint scaled to fit maxEdge pixels and writes a PNG; no Swing component is
+ * ever created. Jobs run one per virtual thread where the runtime has them (Java 21+),
+ * else on a fixed pool sized to the cores. At most `concurrency` scenes are held in
+ * memory at once; further jobs wait for a permit.
+ *
+ *     java -cp app.jar ThumbnailService scenes/ thumbs/ [maxEdge]
+ *     printf 'a.scene a.png\nb.scene b.png\n' | java -cp app.jar ThumbnailService - [maxEdge]
+ */
+class ThumbnailService implements AutoCloseable {
+    private final int maxEdge;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Semaphore inFlight;
+
+    private final LatencyHistogram latency = new LatencyHistogram("thumbnail");
+    private final AtomicLong completed = new AtomicLong(), failed = new AtomicLong();
+    private volatile long firstSubmit, lastDone;
+
+    ThumbnailService(int maxEdge, int concurrency) {
+        if (maxEdge < 1) throw new IllegalArgumentException("Thumbnail size must be positive: " + maxEdge);
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        this.maxEdge = maxEdge;
+        this.inFlight = new Semaphore(concurrency);
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "thumbnail");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor() on runtimes that have it, else null. */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    boolean usesVirtualThreads() { return virtualThreads; }
+
+    /** Queues one job; the future completes with its result or the failure. Any thread. */
+    CompletableFuture<Result> submit(Path scene, Path png) {
+        if (firstSubmit == 0) firstSubmit = System.nanoTime();
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                long nanos;
+                inFlight.acquire();
+                try {
+                    long t0 = System.nanoTime();
+                    render(scene, png);
+                    nanos = System.nanoTime() - t0;
+                } finally {
+                    inFlight.release();
+                }
+                latency.record(nanos);
+                completed.incrementAndGet();
+                result.complete(new Result(scene, png, nanos));
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                result.completeExceptionally(e);
+            } finally {
+                lastDone = System.nanoTime();
+            }
+        });
+        return result;
+    }
+
+    /** Queues a job for every regular file in dir, writing <name>.png into outDir. */
+    List<CompletableFuture<Result>> submitDirectory(Path dir, Path outDir) throws IOException {
+        Files.createDirectories(outDir);
+        List<CompletableFuture<Result>> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, Files::isRegularFile)) {
+            for (Path scene : files) jobs.add(submit(scene, outDir.resolve(scene.getFileName() + ".png")));
+        }
+        return jobs;
+    }
+
+    /** Loads a scene file and writes its thumbnail, on the calling thread. */
+    void render(Path scene, Path png) throws IOException {
+        ShapeManager shapes = new ShapeManager(new ColumnarShapeStore());
+        SceneFile.load(scene, shapes, new PrototypeRegistry());
+        if (!ImageIO.write(thumbnail(shapes, maxEdge), "png", png.toFile())) throw new IOException("No PNG writer available");
+    }
+
+    /**
+     * The whole scene scaled down to fit maxEdge (never up), on the canvas background.
+     * As on a zoomed-out canvas, circles under 3 px of radius are written into the raster
+     * as plain discs with ScenePaint.fillDot; larger ones get the full look.
+     */
+    static BufferedImage thumbnail(ShapeManager shapes, int maxEdge) {
+        Rectangle world = shapes.extent();
+        if (world == null) world = new Rectangle(0, 0, 600, 480);
+        double scale = Math.min(1, (double) maxEdge / Math.max(world.width, world.height));
+        int w = Math.max(1, (int) Math.round(world.width * scale)), h = Math.max(1, (int) Math.round(world.height * scale));
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] raster = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        Rectangle bounds = new Rectangle(0, 0, w, h);
+        Graphics2D g = img.createGraphics();
+        g.setFont(CircleShape.labelBaseFont()); // the font paint bounds were measured with
+        g.scale(scale, scale);
+        ScenePaint.paintBackground(g, world.width, world.height);
+        g.translate(-world.x, -world.y);
+        ShapeStore store = shapes.getStore();
+        for (int id = 0, n = store.size(); id < n; id++) {
+            int x = store.getX(id), y = store.getY(id), r = store.getRadius(id);
+            ShapeStyle style = store.getStyle(id);
+            double rs = r * scale;
+            if (rs < 3) {
+                int rgb = style.fill != null ? style.fill.getRGB() : 0;
+                ScenePaint.fillDot(raster, w, bounds, (x - world.x) * scale, (y - world.y) * scale, rs, rgb);
+            } else {
+                CircleShape.paint(g, x, y, r, style, false);
+            }
+        }
+        g.dispose();
+        return img;
+    }
+
+    long getCompleted() { return completed.get(); }
+
+    long getFailed() { return failed.get(); }
+
+    /** Per-job render time (load, draw, encode), excluding time waiting for a permit. */
+    LatencyHistogram getLatency() { return latency; }
+
+    /** Finished jobs per second between the first submit and the latest completion. */
+    double jobsPerSecond() {
+        long span = lastDone - firstSubmit;
+        return span <= 0 ? 0 : (completed.get() + failed.get()) * 1e9 / span;
+    }
+
+    /** Stops accepting jobs and waits for the queued ones to finish. */
+    @Override public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("java.awt.headless") == null) System.setProperty("java.awt.headless", "true");
+        boolean fromStdin = args.length >= 1 && args[0].equals("-");
+        if (args.length < (fromStdin ? 1 : 2)) {
+            System.err.println("usage: ThumbnailService <sceneDir> <outDir> [maxEdge]");
+            System.err.println("       ThumbnailService - [maxEdge]   (jobs as '<scene> <png>' lines on stdin)");
+            System.exit(2);
+        }
+        int maxEdge = args.length > (fromStdin ? 1 : 2) ? Integer.parseInt(args[fromStdin ? 1 : 2]) : 256;
+        int concurrency = Integer.getInteger("thumbnails.concurrency", 2 * Runtime.getRuntime().availableProcessors());
+
+        List<CompletableFuture<Result>> jobs = new ArrayList<>();
+        try (ThumbnailService service = new ThumbnailService(maxEdge, concurrency)) {
+            if (fromStdin) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                for (String line; (line = in.readLine()) != null; ) {
+                    String[] job = line.trim().split("\\s+");
+                    if (job.length == 2) jobs.add(report(service.submit(Paths.get(job[0]), Paths.get(job[1])), job[0]));
+                    else if (!line.trim().isEmpty()) System.err.println("⚠️ Skipped malformed job: " + line);
+                }
+            } else {
+                Path dir = Paths.get(args[0]);
+                for (CompletableFuture<Result> job : service.submitDirectory(dir, Paths.get(args[1]))) jobs.add(report(job, dir.toString()));
+            }
+            CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+
+            LatencyHistogram l = service.getLatency();
+            System.out.printf("🖼 %d thumbnails, %d failed, %.1f jobs/s on %s; latency p50 %.1f ms, p99 %.1f ms%n",
+                    service.getCompleted(), service.getFailed(), service.jobsPerSecond(),
+                    service.usesVirtualThreads() ? "virtual threads" : concurrency + " threads",
+                    l.percentile(0.5) / 1e6, l.percentile(0.99) / 1e6);
+            if (service.getFailed() > 0) System.exit(1);
+        }
+    }
+
+    private static CompletableFuture<Result> report(CompletableFuture<Result> job, String source) {
+        return job.whenComplete((r, e) -> {
+            if (e != null) System.err.println("❌ " + source + ": " + e);
+            else System.out.printf("✅ %s -> %s in %.1f ms%n", r.scene, r.png, r.nanos / 1e6);
+        });
+    }
+
+    /** A finished job and how long it took to render. */
+    static final class Result {
+        final Path scene, png;
+        final long nanos;
+
+        Result(Path scene, Path png, long nanos) {
+            this.scene = scene;
+            this.png = png;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Renders a region of the scene to a PNG of arbitrary size. The output is cut into
+ * horizontal bands of tiles; the tiles of a band are rendered in parallel, each with its
+ * own Graphics2D and only the shapes the grid index puts inside it, and finished bands
+ * are streamed to the encoder while the next band renders. At most two bands of pixels
+ * are in memory, whatever the output size.
+ *
+ * The scene must not be mutated while an export runs. To export while it keeps changing,
+ * take a Snapshot of the area on the scene's thread and export from that on another.
+ * An export checks for interruption between bands and gives up with an
+ * InterruptedIOException.
+ */
+class TiledExporter {
+    static final int TILE = 512;
+
+    /** Told after each band of tiles is written; total is the number of bands. */
+    interface Progress {
+        void bandWritten(int done, int total);
+    }
+
+    /** The shapes that can show in an area, copied column by column in z-order. */
+    static final class Snapshot {
+        private final int[] xs, ys, radii;
+        private final ShapeStyle[] styles;
+
+        private Snapshot(int n) {
+            xs = new int[n];
+            ys = new int[n];
+            radii = new int[n];
+            styles = new ShapeStyle[n];
+        }
+
+        /** Copies the shapes touching world; cheap enough for the EDT. */
+        static Snapshot of(ShapeManager shapes, Rectangle world) {
+            int[] ids = shapes.idsIn(world);
+            ShapeStore store = shapes.getStore();
+            Snapshot s = new Snapshot(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                int id = ids[i];
+                s.xs[i] = store.getX(id);
+                s.ys[i] = store.getY(id);
+                s.radii[i] = store.getRadius(id);
+                s.styles[i] = store.getStyle(id);
+            }
+            return s;
+        }
+
+        int size() { return xs.length; }
+
+        /** A scene of just these shapes with its own index, built on the calling thread. */
+        ShapeManager toScene() {
+            ShapeManager scene = new ShapeManager(new ColumnarShapeStore(xs.length));
+            ShapeStore store = scene.getStore();
+            for (int i = 0; i < xs.length; i++) store.add(styles[i], xs[i], ys[i], radii[i]);
+            scene.commitAppended(0);
+            return scene;
+        }
+    }
+
+    private final ShapeManager shapes;
+    private final ForkJoinPool pool;
+
+    TiledExporter(ShapeManager shapes) {
+        this(shapes, ForkJoinPool.commonPool());
+    }
+
+    TiledExporter(ShapeManager shapes, ForkJoinPool pool) {
+        this.shapes = shapes;
+        this.pool = pool;
+    }
+
+    void export(Rectangle world, int outW, int outH, Path file) throws IOException {
+        export(world, outW, outH, file, null);
+    }
+
+    /** Like export to a stream; a failed or interrupted export deletes the partial file. */
+    void export(Rectangle world, int outW, int outH, Path file, Progress progress) throws IOException {
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+                export(world, outW, outH, out, progress);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    void export(Rectangle world, int outW, int outH, OutputStream out) throws IOException {
+        export(world, outW, outH, out, null);
+    }
+
+    /** Renders the world rectangle scaled to outW x outH pixels and writes it as PNG. */
+    void export(Rectangle world, int outW, int outH, OutputStream out, Progress progress) throws IOException {
+        if (outW <= 0 || outH <= 0 || world.isEmpty()) throw new IllegalArgumentException("Empty export area");
+        double sx = (double) outW / world.width, sy = (double) outH / world.height;
+        int bands = (outH + TILE - 1) / TILE;
+
+        PngWriter png = new PngWriter(out, outW, outH);
+        ForkJoinTask<BufferedImage[]> next = pool.submit(() -> renderBand(0, world, outW, outH, sx, sy));
+        for (int band = 0; band < bands; band++) {
+            if (Thread.currentThread().isInterrupted()) {
+                next.cancel(true);
+                throw new InterruptedIOException("Export cancelled");
+            }
+            BufferedImage[] tiles = join(next);
+            if (band + 1 < bands) {
+                int b = band + 1;
+                next = pool.submit(() -> renderBand(b, world, outW, outH, sx, sy));
+            }
+            int rows = tiles[0].getHeight();
+            for (int row = 0; row < rows; row++) {
+                for (BufferedImage tile : tiles) {
+                    int[] px = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+                    png.writePixels(px, row * tile.getWidth(), tile.getWidth());
+                }
+            }
+            if (progress != null) progress.bandWritten(band + 1, bands);
+        }
+        png.finish();
+    }
+
+    private BufferedImage[] renderBand(int band, Rectangle world, int outW, int outH, double sx, double sy) {
+        int cols = (outW + TILE - 1) / TILE;
+        return IntStream.range(0, cols).parallel()
+                .mapToObj(col -> renderTile(col * TILE, band * TILE, Math.min(TILE, outW - col * TILE),
+                        Math.min(TILE, outH - band * TILE), world, sx, sy))
+                .toArray(BufferedImage[]::new);
+    }
+
+    private BufferedImage renderTile(int px, int py, int tw, int th, Rectangle world, double sx, double sy) {
+        BufferedImage tile = new BufferedImage(tw, th, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+        g.setFont(CircleShape.labelBaseFont()); // the font paint bounds were measured with
+        g.translate(-px, -py);
+        g.scale(sx, sy);
+        AffineTransform base = g.getTransform();
+        ScenePaint.paintBackground(g, world.width, world.height);
+        g.setTransform(base);
+        g.translate(-world.x, -world.y);
+
+        // world-space area covered by this tile, padded for rounding at the edges
+        Rectangle area = new Rectangle(
+                world.x + (int) Math.floor(px / sx) - 1, world.y + (int) Math.floor(py / sy) - 1,
+                (int) Math.ceil(tw / sx) + 2, (int) Math.ceil(th / sy) + 2);
+        ShapeStore store = shapes.getStore();
+        for (int id : shapes.idsIn(area)) {
+            CircleShape.paint(g, store.getX(id), store.getY(id), store.getRadius(id), store.getStyle(id), false);
+        }
+        g.dispose();
+        return tile;
+    }
+
+    private static BufferedImage[] join(ForkJoinTask<BufferedImage[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export cancelled");
+        } catch (ExecutionException e) {
+            throw new IOException("Tile rendering failed", e.getCause());
+        }
+    }
+
+    /** Minimal streaming PNG encoder: 8-bit RGB, filter type None, one IDAT per 64 KB. */
+    private static final class PngWriter {
+        private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+        private final DataOutputStream out;
+        private final DeflaterOutputStream idat;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final int width;
+        private final byte[] line;
+        private int filled;
+
+        PngWriter(OutputStream os, int width, int height) throws IOException {
+            this.out = new DataOutputStream(os);
+            this.width = width;
+            this.line = new byte[1 + width * 3];
+            out.write(SIGNATURE);
+            ByteBuffer ihdr = ByteBuffer.allocate(13).putInt(width).putInt(height);
+            ihdr.put((byte) 8).put((byte) 2); // 8-bit RGB; deflate, no filter, no interlace
+            writeChunk("IHDR", ihdr.array(), 13);
+            idat = new DeflaterOutputStream(new IdatStream(), deflater, 1 << 16);
+        }
+
+        /** Appends n pixels of the current scanline; starts a new scanline when one fills up. */
+        void writePixels(int[] px, int from, int n) throws IOException {
+            int p = 1 + filled * 3;
+            for (int i = from, end = from + n; i < end; i++) {
+                int rgb = px[i];
+                line[p++] = (byte) (rgb >> 16);
+                line[p++] = (byte) (rgb >> 8);
+                line[p++] = (byte) rgb;
+            }
+            filled += n;
+            if (filled == width) {
+                line[0] = 0; // filter type None
+                idat.write(line);
+                filled = 0;
+            }
+        }
+
+        void finish() throws IOException {
+            idat.finish();
+            deflater.end();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        }
+
+        private void writeChunk(String type, byte[] data, int len) throws IOException {
+            byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+            CRC32 crc = new CRC32();
+            crc.update(t);
+            crc.update(data, 0, len);
+            out.writeInt(len);
+            out.write(t);
+            out.write(data, 0, len);
+            out.writeInt((int) crc.getValue());
+        }
+
+        /** Sink for the deflater that cuts compressed bytes into IDAT chunks. */
+        private final class IdatStream extends OutputStream {
+            @Override public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return;
+                byte[] chunk = off == 0 ? b : Arrays.copyOfRange(b, off, off + len);
+                writeChunk("IDAT", chunk, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import javax.swing.*;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an InputTrace against an offscreen CanvasPanel and measures, for every input
+ * that invalidated part of the canvas, the time from dispatching it on the EDT to the end
+ * of the frame that painted it. Frames come from the canvas' own RepaintScheduler at its
+ * frame cap, so the numbers include the pacing a user sees. Inputs are replayed at their
+ * recorded times, or back to back with --max-speed; either way the trace's starting
+ * scene and viewport make the resulting scene the same on every run.
+ *
+ *     java -cp app.jar TraceReplay session.ptrace [--max-speed]
+ */
+class TraceReplay {
+    private final InputTrace trace;
+    private final boolean maxSpeed;
+
+    // EDT-confined replay state
+    private ShapeManager shapes;
+    private PrototypeRegistry registry;
+    private UndoJournal journal;
+    private PlacementEngine placement;
+    private CanvasPanel canvas;
+    private BufferedImage frame;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final Map<String, LatencyHistogram> latency = new LinkedHashMap<>();
+    private int frames, unpainted, skipped;
+
+    TraceReplay(InputTrace trace, boolean maxSpeed) {
+        this.trace = trace;
+        this.maxSpeed = maxSpeed;
+    }
+
+    /** An input waiting for the frame that shows it. */
+    private static final class Pending {
+        final long dispatched;
+        final LatencyHistogram histogram;
+
+        Pending(long dispatched, LatencyHistogram histogram) {
+            this.dispatched = dispatched;
+            this.histogram = histogram;
+        }
+    }
+
+    /** Replays the whole trace and waits for the last frame; returns the wall time in nanoseconds. */
+    long run() throws Exception {
+        SwingUtilities.invokeAndWait(this::setUp);
+        long start = System.nanoTime();
+        for (InputTrace.Event e : trace.events) {
+            if (!maxSpeed) {
+                long wait = start + e.atNanos - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            SwingUtilities.invokeAndWait(() -> dispatch(e));
+        }
+        // let the scheduler flush the final frame
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            boolean[] idle = new boolean[1];
+            SwingUtilities.invokeAndWait(() -> idle[0] = pending.isEmpty());
+            if (idle[0]) break;
+            Thread.sleep(5);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void setUp() {
+        shapes = Boolean.getBoolean("shapes.columnar") ? new ShapeManager(new ColumnarShapeStore()) : new ShapeManager();
+        registry = new PrototypeRegistry();
+        try {
+            Path tmp = Files.createTempFile("replay", ".scene");
+            try {
+                Files.write(tmp, trace.scene);
+                SceneFile.load(tmp, shapes, registry);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Trace holds an unreadable scene", e);
+        }
+        journal = new UndoJournal(shapes, 100_000, 250, 64L << 20);
+        placement = new PlacementEngine(shapes, 4); // the app's gap
+        canvas = new CanvasPanel(shapes, null);
+        canvas.setSize(trace.width, trace.height);
+        canvas.setView(trace.scale, trace.panX, trace.panY);
+        frame = new BufferedImage(Math.max(1, trace.width), Math.max(1, trace.height), BufferedImage.TYPE_INT_RGB);
+        canvas.getRepaintScheduler().setFrameSink(this::paintFrame);
+    }
+
+    private void dispatch(InputTrace.Event e) {
+        RepaintScheduler repaints = canvas.getRepaintScheduler();
+        long requests = repaints.getRequests();
+        long t0 = System.nanoTime();
+        String kind;
+        switch (e.type) {
+            case InputTrace.MOUSE:
+                kind = mouseKind(e);
+                canvas.dispatchEvent(new MouseEvent(canvas, e.id, System.currentTimeMillis(), e.modifiers, e.x, e.y, e.clicks, false, e.button));
+                break;
+            case InputTrace.WHEEL:
+                kind = "wheel";
+                canvas.dispatchEvent(new MouseWheelEvent(canvas, MouseEvent.MOUSE_WHEEL, System.currentTimeMillis(), e.modifiers,
+                        e.x, e.y, e.x, e.y, 0, false, MouseWheelEvent.WHEEL_UNIT_SCROLL, 1, (int) Math.signum(e.rotation), e.rotation));
+                break;
+            case InputTrace.CLONE:
+                kind = "clone";
+                CirclePrototype p = registry.getPrototypeForEdit(e.key);
+                if (p == null) {
+                    skipped++;
+                    return;
+                }
+                shapes.addShape(p.spawnAt(e.x, e.y));
+                break;
+            case InputTrace.UNDO:
+                kind = "undo";
+                journal.undo();
+                break;
+            case InputTrace.REDO:
+                kind = "redo";
+                journal.redo();
+                break;
+            case InputTrace.RECOLOR:
+            case InputTrace.RESIZE:
+            case InputTrace.RELABEL:
+                kind = "inspector";
+                if (e.id >= shapes.size()) {
+                    skipped++;
+                    return;
+                }
+                CircleShape s = shapes.getStore().get(e.id);
+                if (e.type == InputTrace.RECOLOR) s.setColor(e.color);
+                else if (e.type == InputTrace.RESIZE) s.setRadius(e.radius);
+                else s.setLabel(e.label);
+                break;
+            case InputTrace.PROTOTYPE:
+                kind = "prototype";
+                registry.register(e.key, new CirclePrototype(e.name, e.radius, e.color));
+                break;
+            case InputTrace.RENAME:
+                kind = "prototype";
+                if (!registry.contains(e.oldKey)) {
+                    skipped++;
+                    return;
+                }
+                registry.rename(e.oldKey, e.key, new CirclePrototype(e.name, e.radius, e.color));
+                break;
+            case InputTrace.REMOVE:
+                kind = "prototype";
+                registry.remove(e.key);
+                break;
+            case InputTrace.PACK:
+                kind = "pack";
+                if (!registry.contains(e.key)) {
+                    skipped++;
+                    return;
+                }
+                shapes.addShapes(registry.packClones(e.key, e.count, new Rectangle(e.x, e.y, e.width, e.height), placement, e.seed));
+                break;
+            default:
+                kind = "view";
+                canvas.setView(e.scale, e.x, e.y);
+                break;
+        }
+        if (repaints.getRequests() != requests) pending.add(new Pending(t0, histogram(kind)));
+        else unpainted++;
+    }
+
+    private static String mouseKind(InputTrace.Event e) {
+        switch (e.id) {
+            case MouseEvent.MOUSE_PRESSED: return "press";
+            case MouseEvent.MOUSE_RELEASED: return "release";
+            case MouseEvent.MOUSE_CLICKED: return e.clicks >= 2 ? "double-click" : "click";
+            case MouseEvent.MOUSE_DRAGGED: return "drag";
+            default: return "move";
+        }
+    }
+
+    private LatencyHistogram histogram(String kind) {
+        return latency.computeIfAbsent(kind, LatencyHistogram::new);
+    }
+
+    /** Frame sink: paints the dirty area offscreen and settles every input it shows. */
+    private void paintFrame(Rectangle area) {
+        Graphics2D g = frame.createGraphics();
+        g.setClip(area);
+        canvas.paint(g);
+        g.dispose();
+        long end = System.nanoTime();
+        frames++;
+        for (Pending p; (p = pending.poll()) != null; ) p.histogram.record(end - p.dispatched);
+    }
+
+    /** Latency per input kind, in first-seen order. */
+    Map<String, LatencyHistogram> getLatency() { return latency; }
+
+    int getFrames() { return frames; }
+
+    /** Inputs that changed nothing on screen and so have no latency. */
+    int getUnpainted() { return unpainted; }
+
+    /** Records naming a prototype or shape the replayed session does not have. */
+    int getSkipped() { return skipped; }
+
+    int getShapeCount() { return shapes.size(); }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("java.awt.headless") == null) System.setProperty("java.awt.headless", "true");
+        if (args.length < 1) {
+            System.err.println("usage: TraceReplay <trace> [--max-speed]");
+            System.exit(2);
+        }
+        InputTrace trace = InputTrace.read(Paths.get(args[0]));
+        boolean maxSpeed = args.length > 1 && args[1].equals("--max-speed");
+        TraceReplay replay = new TraceReplay(trace, maxSpeed);
+        long wall = replay.run();
+
+        System.out.printf("▶ %d inputs replayed %s in %.1f ms: %d frames, %d inputs without a repaint, %d skipped, %d shapes%n",
+                trace.events.size(), maxSpeed ? "at max speed" : "at recorded speed", wall / 1e6,
+                replay.getFrames(), replay.getUnpainted(), replay.getSkipped(), replay.getShapeCount());
+        System.out.printf("%-13s %8s %10s %10s %10s%n", "input→frame", "count", "p50 ms", "p90 ms", "p99 ms");
+        for (LatencyHistogram h : replay.getLatency().values()) {
+            System.out.printf("%-13s %8d %10.2f %10.2f %10.2f%n", h.name, h.count(),
+                    h.percentile(0.5) / 1e6, h.percentile(0.9) / 1e6, h.percentile(0.99) / 1e6);
+        }
+        System.exit(0);
+    }
+}
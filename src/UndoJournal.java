@@ -0,0 +1,440 @@
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Undo/redo history for the scene, recorded as primitive deltas. Every ShapeManager
+ * edit becomes one record in a fixed ring: (id, dx, dy) for moves, old and new values
+ * for resizes, recolors and relabels, and the appended rows for clones. Records made
+ * between beginGesture and endGesture form one step, and consecutive moves of the same
+ * shape inside a gesture are merged, so a whole drag undoes as a single step.
+ *
+ * Every snapshotEvery steps a full copy of the scene is kept; undo(n) restores the
+ * nearest snapshot and replays forward when that is shorter than reversing n steps.
+ * Memory is bounded by the record capacity and a byte budget for snapshots and clone
+ * payloads; the oldest snapshots, then the oldest steps, are dropped to stay inside it.
+ * The step being recorded is never cut: when it alone fills the ring, its records are
+ * folded into a single spill record that grows with it, so a bulk move of more shapes
+ * than the capacity still undoes completely.
+ */
+class UndoJournal implements SceneEditListener {
+    private static final byte MOVE = 0, RESIZE = 1, RECOLOR = 2, RELABEL = 3, ADD = 4, SPILL = 5;
+
+    private final ShapeManager shapes;
+    private final int capacity;
+    private final int snapshotEvery;
+    private final long payloadBudget;
+
+    // record ring; record n lives at slot n % capacity
+    private final byte[] kinds;
+    private final int[] ids, as, bs;
+    private final long[] steps;
+    private final Object[] befores, afters;
+    private long first, head, end; // retained records [first, end), applied [first, head)
+
+    private long appliedStep;      // the scene is in the state after this step
+    private boolean inGesture;
+    private long gestureStep = -1;
+    private boolean replaying;
+
+    private final ArrayDeque<Snapshot> snapshots = new ArrayDeque<>();
+    private long payloadBytes;
+
+    UndoJournal(ShapeManager shapes, int capacity, int snapshotEvery, long payloadBudget) {
+        if (capacity < 16) throw new IllegalArgumentException("Capacity too small: " + capacity);
+        this.shapes = shapes;
+        this.capacity = capacity;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.payloadBudget = payloadBudget;
+        kinds = new byte[capacity];
+        ids = new int[capacity];
+        as = new int[capacity];
+        bs = new int[capacity];
+        steps = new long[capacity];
+        befores = new Object[capacity];
+        afters = new Object[capacity];
+        shapes.addEditListener(this);
+    }
+
+    boolean canUndo() { return head > first; }
+    boolean canRedo() { return head < end; }
+
+    /** Steps undo(n) can still reach. */
+    int undoableSteps() { return (int) (appliedStep - oldestReachableStep()); }
+
+    /** Approximate bytes held by records, clone payloads and snapshots. */
+    long footprintBytes() { return capacity * 41L + payloadBytes; }
+
+    int snapshotCount() { return snapshots.size(); }
+
+    // --- recording --------------------------------------------------------------------
+
+    @Override public void gestureStarted() {
+        inGesture = true;
+        gestureStep = -1;
+    }
+
+    @Override public void gestureEnded() {
+        inGesture = false;
+        if (gestureStep >= 0) stepCompleted();
+        gestureStep = -1;
+    }
+
+    @Override public void shapeEdited(int id, ShapeEdit e) {
+        if (replaying) return;
+        switch (e.kind) {
+            case MOVE:
+                if (inGesture && head > first && head == end) {
+                    int last = slot(head - 1);
+                    if (steps[last] == gestureStep && kinds[last] == MOVE && ids[last] == id) {
+                        as[last] += e.a;
+                        bs[last] += e.b;
+                        return;
+                    }
+                }
+                record(MOVE, id, e.a, e.b, null, null, 0);
+                break;
+            case RESIZE:
+                record(RESIZE, id, e.a, e.b, null, null, 0);
+                break;
+            case RECOLOR:
+                record(RECOLOR, id, 0, 0, e.before, e.after, 0);
+                break;
+            case RELABEL:
+                record(RELABEL, id, 0, 0, e.before, e.after, 0);
+                break;
+        }
+    }
+
+    @Override public void shapesAdded(int firstId, int count) {
+        if (replaying) return;
+        Rows rows = Rows.capture(shapes.getStore(), firstId, count);
+        record(ADD, firstId, count, 0, rows, null, rows.bytes());
+    }
+
+    @Override public void shapesTruncated(int size) {
+        if (!replaying) clear(); // removals outside undo have no inverse here
+    }
+
+    @Override public void sceneReset() {
+        if (!replaying) clear();
+    }
+
+    /** Forgets all history, e.g. after a scene was loaded. */
+    void clear() {
+        for (long n = first; n < end; n++) befores[slot(n)] = afters[slot(n)] = null;
+        first = head = end = 0;
+        appliedStep = 0;
+        gestureStep = -1;
+        snapshots.clear();
+        payloadBytes = 0;
+    }
+
+    private void record(byte kind, int id, int a, int b, Object before, Object after, long payload) {
+        discardRedo();
+        long step;
+        if (inGesture) {
+            if (gestureStep < 0) gestureStep = appliedStep + 1;
+            step = gestureStep;
+        } else {
+            step = appliedStep + 1;
+        }
+        if (end - first == capacity) {
+            if (steps[slot(first)] == step) spill();
+            else dropOldestStep();
+        }
+        int s = slot(end);
+        kinds[s] = kind;
+        ids[s] = id;
+        as[s] = a;
+        bs[s] = b;
+        befores[s] = before;
+        afters[s] = after;
+        steps[s] = step;
+        end++;
+        head = end;
+        appliedStep = step;
+        payloadBytes += payload;
+        if (!inGesture) stepCompleted();
+        enforceBudget();
+    }
+
+    private void stepCompleted() {
+        if (appliedStep % snapshotEvery == 0) {
+            Snapshot snap = new Snapshot(appliedStep, Rows.capture(shapes.getStore(), 0, shapes.size()));
+            snapshots.addLast(snap);
+            payloadBytes += snap.rows.bytes();
+            enforceBudget();
+        }
+    }
+
+    /** The ring holds only the step being recorded: fold its records into one spill record. */
+    private void spill() {
+        int s0 = slot(first);
+        long step = steps[s0];
+        Spill sp = kinds[s0] == SPILL ? (Spill) befores[s0] : new Spill();
+        for (long n = first; n < end; n++) payloadBytes -= payloadOf(slot(n));
+        for (long n = kinds[s0] == SPILL ? first + 1 : first; n < end; n++) {
+            int s = slot(n);
+            sp.add(kinds[s], ids[s], as[s], bs[s], befores[s], afters[s]);
+        }
+        for (long n = first; n < end; n++) befores[slot(n)] = afters[slot(n)] = null;
+        first = end;
+        int s = slot(end);
+        kinds[s] = SPILL;
+        befores[s] = sp;
+        steps[s] = step;
+        end++;
+        head = end;
+        payloadBytes += sp.bytes();
+    }
+
+    private void discardRedo() {
+        if (head == end) return;
+        for (long n = head; n < end; n++) {
+            int s = slot(n);
+            payloadBytes -= payloadOf(s);
+            befores[s] = afters[s] = null;
+        }
+        end = head;
+        // snapshots taken on the discarded branch no longer describe reachable states
+        while (!snapshots.isEmpty() && snapshots.peekLast().step > appliedStep) {
+            payloadBytes -= snapshots.removeLast().rows.bytes();
+        }
+    }
+
+    private void dropOldestStep() {
+        long step = steps[slot(first)];
+        while (first < end && steps[slot(first)] == step) {
+            int s = slot(first);
+            payloadBytes -= payloadOf(s);
+            befores[s] = afters[s] = null;
+            first++;
+        }
+        if (head < first) head = first;
+        // a snapshot older than the oldest reachable state can never be used
+        long oldest = oldestReachableStep();
+        while (!snapshots.isEmpty() && snapshots.peekFirst().step < oldest) {
+            payloadBytes -= snapshots.removeFirst().rows.bytes();
+        }
+    }
+
+    private void enforceBudget() {
+        while (payloadBytes > payloadBudget && !snapshots.isEmpty()) {
+            payloadBytes -= snapshots.removeFirst().rows.bytes();
+        }
+        // older steps only; the one just recorded stays whole
+        while (payloadBytes > payloadBudget && first < head && steps[slot(first)] < appliedStep) dropOldestStep();
+    }
+
+    private long oldestReachableStep() {
+        return first < end ? steps[slot(first)] - 1 : appliedStep;
+    }
+
+    // --- undo / redo ------------------------------------------------------------------
+
+    /** Reverts the most recent step; returns false if there is nothing to undo. */
+    boolean undo() {
+        if (head == first) return false;
+        long step = steps[slot(head - 1)];
+        replaying = true;
+        try {
+            while (head > first && steps[slot(head - 1)] == step) {
+                head--;
+                revert(slot(head));
+            }
+        } finally {
+            replaying = false;
+        }
+        appliedStep = step - 1;
+        return true;
+    }
+
+    /** Re-applies the next undone step; returns false if there is nothing to redo. */
+    boolean redo() {
+        if (head == end) return false;
+        long step = steps[slot(head)];
+        replaying = true;
+        try {
+            while (head < end && steps[slot(head)] == step) {
+                apply(slot(head));
+                head++;
+            }
+        } finally {
+            replaying = false;
+        }
+        appliedStep = step;
+        return true;
+    }
+
+    /**
+     * Undoes n steps, going through the closest snapshot when restoring it and replaying
+     * forward touches fewer steps than reversing one by one. Returns the steps undone.
+     */
+    int undo(int n) {
+        long target = Math.max(oldestReachableStep(), appliedStep - n);
+        Snapshot best = null;
+        for (Iterator<Snapshot> it = snapshots.descendingIterator(); it.hasNext(); ) {
+            Snapshot s = it.next();
+            if (s.step <= target && s.step >= oldestReachableStep()) { best = s; break; }
+        }
+        long start = appliedStep;
+        if (best != null && target - best.step < start - target) {
+            restore(best);
+            while (appliedStep < target && redo()) { }
+        } else {
+            while (appliedStep > target && undo()) { }
+        }
+        return (int) (start - appliedStep);
+    }
+
+    private void restore(Snapshot snap) {
+        replaying = true;
+        try {
+            shapes.clear();
+            snap.rows.appendTo(shapes);
+        } finally {
+            replaying = false;
+        }
+        // records after the snapshot step are now unapplied
+        long lo = first, hi = end;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (steps[slot(mid)] <= snap.step) lo = mid + 1; else hi = mid;
+        }
+        head = lo;
+        appliedStep = snap.step;
+    }
+
+    private void revert(int s) { revert(kinds[s], ids[s], as[s], bs[s], befores[s]); }
+
+    private void apply(int s) { apply(kinds[s], ids[s], as[s], bs[s], befores[s], afters[s]); }
+
+    private void revert(byte kind, int id, int a, int b, Object before) {
+        switch (kind) {
+            case MOVE: shape(id).moveBy(-a, -b); break;
+            case RESIZE: shape(id).setRadius(a); break;
+            case RECOLOR: shape(id).setColor((Color) before); break;
+            case RELABEL: shape(id).setLabel((String) before); break;
+            case ADD: shapes.truncate(id); break;
+            case SPILL: {
+                Spill sp = (Spill) before;
+                for (int i = sp.size - 1; i >= 0; i--) revert(sp.kinds[i], sp.ids[i], sp.as[i], sp.bs[i], sp.befores[i]);
+                break;
+            }
+        }
+    }
+
+    private void apply(byte kind, int id, int a, int b, Object before, Object after) {
+        switch (kind) {
+            case MOVE: shape(id).moveBy(a, b); break;
+            case RESIZE: shape(id).setRadius(b); break;
+            case RECOLOR: shape(id).setColor((Color) after); break;
+            case RELABEL: shape(id).setLabel((String) after); break;
+            case ADD: ((Rows) before).appendTo(shapes); break;
+            case SPILL: {
+                Spill sp = (Spill) before;
+                for (int i = 0; i < sp.size; i++) apply(sp.kinds[i], sp.ids[i], sp.as[i], sp.bs[i], sp.befores[i], sp.afters[i]);
+                break;
+            }
+        }
+    }
+
+    private CircleShape shape(int id) {
+        return shapes.getStore().get(id);
+    }
+
+    private long payloadOf(int s) {
+        switch (kinds[s]) {
+            case ADD: return ((Rows) befores[s]).bytes();
+            case SPILL: return ((Spill) befores[s]).bytes();
+            default: return 0;
+        }
+    }
+
+    private int slot(long n) {
+        return (int) (n % capacity);
+    }
+
+    /** Scene state after a given step. */
+    private static final class Snapshot {
+        final long step;
+        final Rows rows;
+
+        Snapshot(long step, Rows rows) {
+            this.step = step;
+            this.rows = rows;
+        }
+    }
+
+    /** The records of one step too big for the ring, in the order they were made. */
+    private static final class Spill {
+        byte[] kinds = new byte[64];
+        int[] ids = new int[64], as = new int[64], bs = new int[64];
+        Object[] befores = new Object[64], afters = new Object[64];
+        int size;
+        long rowBytes; // clone payloads among the records
+
+        void add(byte kind, int id, int a, int b, Object before, Object after) {
+            if (size == kinds.length) {
+                int n = size * 2;
+                kinds = Arrays.copyOf(kinds, n);
+                ids = Arrays.copyOf(ids, n);
+                as = Arrays.copyOf(as, n);
+                bs = Arrays.copyOf(bs, n);
+                befores = Arrays.copyOf(befores, n);
+                afters = Arrays.copyOf(afters, n);
+            }
+            kinds[size] = kind;
+            ids[size] = id;
+            as[size] = a;
+            bs[size] = b;
+            befores[size] = before;
+            afters[size] = after;
+            size++;
+            if (kind == ADD) rowBytes += ((Rows) before).bytes();
+        }
+
+        long bytes() { return 41L * size + rowBytes; }
+    }
+
+    /** Copied shape rows, used for clone payloads and snapshots. */
+    private static final class Rows {
+        final int firstId;
+        final int[] xs, ys, radii;
+        final ShapeStyle[] styles; // shared flyweights, so a row costs one reference
+
+        private Rows(int firstId, int count) {
+            this.firstId = firstId;
+            xs = new int[count];
+            ys = new int[count];
+            radii = new int[count];
+            styles = new ShapeStyle[count];
+        }
+
+        static Rows capture(ShapeStore store, int firstId, int count) {
+            Rows r = new Rows(firstId, count);
+            for (int i = 0; i < count; i++) {
+                int id = firstId + i;
+                r.xs[i] = store.getX(id);
+                r.ys[i] = store.getY(id);
+                r.radii[i] = store.getRadius(id);
+                r.styles[i] = store.getStyle(id);
+            }
+            return r;
+        }
+
+        /** Re-adds the rows; the scene must currently end just before firstId. */
+        void appendTo(ShapeManager shapes) {
+            ShapeStore store = shapes.getStore();
+            if (store.size() != firstId) throw new IllegalStateException("Scene has " + store.size() + " shapes, expected " + firstId);
+            for (int i = 0; i < xs.length; i++) store.add(styles[i], xs[i], ys[i], radii[i]);
+            shapes.commitAppended(firstId);
+        }
+
+        long bytes() {
+            return 16L * xs.length; // three ints plus one shared style reference per row
+        }
+    }
+}
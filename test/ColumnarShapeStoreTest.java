@@ -0,0 +1,31 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarShapeStoreTest {
+    @Test void stylesNoRowUsesAreLetGo() {
+        ColumnarShapeStore store = new ColumnarShapeStore();
+        ShapeStyle red = ShapeStyle.of(Color.RED, "a");
+        for (int i = 0; i < 3; i++) store.add(red, i * 10, 0, 5);
+        assertEquals(1, store.styleCount());
+
+        for (int i = 0; i < 3; i++) store.get(i).setColor(new Color(i, 0, 0));
+        assertEquals(3, store.styleCount()); // red went with its last row
+
+        store.get(0).setLabel("b");
+        store.get(0).setLabel("c");
+        assertEquals(3, store.styleCount());
+        assertEquals("c", store.getLabel(0));
+
+        store.truncate(1);
+        assertEquals(1, store.styleCount());
+        store.add(ShapeStyle.of(Color.BLUE, "d"), 0, 0, 5); // reuses a freed id
+        assertEquals(Color.BLUE, store.getColor(1));
+        assertEquals("c", store.getLabel(0));
+
+        store.clear();
+        assertEquals(0, store.styleCount());
+    }
+}
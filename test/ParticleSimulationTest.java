@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParticleSimulationTest {
+    @Test void oneHugeCircleKeepsTheGridFine() {
+        ShapeManager shapes = new ShapeManager(new ColumnarShapeStore());
+        for (int i = 0; i < 20_000; i++) shapes.addShape(new CircleShape("dot", 5 + (i % 200) * 10, 5 + (i / 200) * 10, 4, Color.CYAN));
+        shapes.addShape(new CircleShape("big", 1000, 500, 1500, Color.ORANGE));
+        try (ParticleSimulation sim = new ParticleSimulation(shapes.getStore(), new Rectangle(0, 0, 2000, 1000), 120, 1, ForkJoinPool.commonPool())) {
+            assertTrue(sim.cellSize() < 20, "cell " + sim.cellSize());
+            sim.step();
+        }
+    }
+
+    @Test void mixedRadiiContactsAreResolved() {
+        ShapeManager shapes = new ShapeManager();
+        shapes.addShape(new CircleShape("a", 1000, 2000, 400, Color.RED));  // 0
+        shapes.addShape(new CircleShape("b", 1690, 2000, 300, Color.RED));  // 1, overlaps a by 10
+        shapes.addShape(new CircleShape("p", 3000, 3000, 10, Color.BLUE)); // 2, overlaps 3 by 10
+        shapes.addShape(new CircleShape("q", 3010, 3000, 10, Color.BLUE)); // 3
+        int ring = 24;
+        for (int i = 0; i < ring; i++) { // small circles half inside a, on the side away from b
+            double angle = Math.PI / 2 + Math.PI * i / (ring - 1);
+            shapes.addShape(new CircleShape("r" + i, (int) Math.round(1000 + 400 * Math.cos(angle)), (int) Math.round(2000 + 400 * Math.sin(angle)), 5, Color.GREEN));
+        }
+        for (int i = 0; i < 400; i++) { // enough typical circles to set the cell size, well apart
+            shapes.addShape(new CircleShape("dot", 3300 + (i % 20) * 30, 100 + (i / 20) * 30, 3, Color.CYAN));
+        }
+        int[] xs = new int[shapes.size()], ys = new int[shapes.size()];
+        try (ParticleSimulation sim = new ParticleSimulation(shapes.getStore(), new Rectangle(0, 0, 4000, 4000), 120, 7, ForkJoinPool.commonPool())) {
+            assertTrue(sim.cellSize() < 200, "cell " + sim.cellSize());
+            sim.step();
+            sim.copyPositions(xs, ys);
+        }
+        // a push of the whole overlap, split by mass, less at most a unit of drift per circle
+        assertTrue(distance(xs, ys, 0, 1) > 697, "big pair at " + distance(xs, ys, 0, 1));
+        assertTrue(distance(xs, ys, 2, 3) > 17, "small pair at " + distance(xs, ys, 2, 3));
+        for (int id = 4; id < 4 + ring; id++) {
+            double d = Math.hypot(xs[id] - 1000, ys[id] - 2000);
+            assertTrue(d > 403, "ring circle " + id + " at " + d);
+        }
+    }
+
+    private static double distance(int[] xs, int[] ys, int a, int b) {
+        return Math.hypot(xs[a] - xs[b], ys[a] - ys[b]);
+    }
+}
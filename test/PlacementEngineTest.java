@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlacementEngineTest {
+    private static final ShapeStyle DOT = ShapeStyle.of(Color.CYAN, "dot");
+
+    @Test void packOnALargeSparseAreaPlacesEveryClone() {
+        ShapeManager shapes = new ShapeManager();
+        shapes.addShape(new CircleShape("big", 500_000, 500_000, 20_000, Color.RED));
+        PlacementEngine placement = new PlacementEngine(shapes, 4);
+        Rectangle area = new Rectangle(0, 0, 1_000_000, 1_000_000); // billions of lattice points
+
+        ShapeBatch batch = placement.pack(DOT, 5, 500, area, 42);
+        assertEquals(500, batch.size());
+        shapes.addShapes(batch);
+        assertNoOverlaps(shapes);
+        for (int i = 0; i < batch.size(); i++) assertTrue(area.contains(batch.xs[i], batch.ys[i]));
+
+        ShapeBatch again = placement.pack(DOT, 5, 500, area, 42);
+        ShapeBatch same = new PlacementEngine(seed(shapes), 4).pack(DOT, 5, 500, area, 42);
+        assertEquals(500, again.size()); // still room beside the first batch
+        assertArrayEquals(batch.xs, same.xs);
+        assertArrayEquals(batch.ys, same.ys);
+    }
+
+    @Test void packStopsWhenTheAreaIsFull() {
+        ShapeManager shapes = new ShapeManager();
+        PlacementEngine placement = new PlacementEngine(shapes, 2);
+        ShapeBatch batch = placement.pack(DOT, 10, 1000, new Rectangle(0, 0, 200, 200), 1);
+        assertTrue(batch.size() > 0 && batch.size() < 1000, "packed " + batch.size());
+        shapes.addShapes(batch);
+        assertNoOverlaps(shapes);
+        assertEquals(0, placement.pack(DOT, 10, 10, new Rectangle(0, 0, 200, 200), 2).size());
+    }
+
+    /** The scene as it was before the last batch: only the first shape. */
+    private static ShapeManager seed(ShapeManager shapes) {
+        ShapeManager fresh = new ShapeManager();
+        ShapeStore store = shapes.getStore();
+        fresh.addShape(new CircleShape("big", store.getX(0), store.getY(0), store.getRadius(0), Color.RED));
+        return fresh;
+    }
+
+    private static void assertNoOverlaps(ShapeManager shapes) {
+        ShapeStore store = shapes.getStore();
+        for (int a = 0; a < store.size(); a++) {
+            for (int b = a + 1; b < store.size(); b++) {
+                long dx = store.getX(a) - store.getX(b), dy = store.getY(a) - store.getY(b);
+                long min = (long) store.getRadius(a) + store.getRadius(b);
+                assertTrue(dx * dx + dy * dy >= min * min, a + " overlaps " + b);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrototypeCatalogTest {
+    @TempDir Path dir;
+
+    @Test void fuzzySearchScoresLibraryKeysFromTheFile() throws Exception {
+        PrototypeRegistry written = new PrototypeRegistry();
+        for (String key : new String[] {"Blue Burst", "Big Red Ball", "ÉCLAIR Blob", "Mint Medium"}) {
+            written.register(key, new CirclePrototype(key, 20, Color.RED));
+        }
+        Path file = dir.resolve("shapes.plib");
+        PrototypeLibrary.write(file, written);
+
+        PrototypeRegistry registry = new PrototypeRegistry();
+        registry.register("Blue Burst", new CirclePrototype("Blue Burst", 30, Color.BLUE));
+        PrototypeCatalog catalog = new PrototypeCatalog(registry);
+        catalog.setLibrary(PrototypeLibrary.open(file));
+
+        // word starts rank first; the registered key is not listed twice
+        assertEquals(List.of("Blue Burst", "Big Red Ball", "ÉCLAIR Blob"), catalog.search("bb", 10));
+        assertEquals(List.of("ÉCLAIR Blob"), catalog.search("éb", 10));
+        assertEquals(List.of("Mint Medium"), catalog.search("MM", 10));
+        assertEquals(PrototypeCatalog.fuzzyScore("big red ball", "bb"), catalog.getLibrary().fuzzyScore(0, "bb"));
+    }
+}
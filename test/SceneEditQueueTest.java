@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.Test;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SceneEditQueueTest {
+    @Test void viewsKeepTheirCopyWhileTheSceneMovesOn() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            ShapeManager shapes = new ShapeManager();
+            for (int i = 0; i < 5000; i++) shapes.addShape(new CircleShape("s" + i, i, 0, 5, Color.RED));
+            SceneEditQueue queue = new SceneEditQueue(shapes, 4, 8);
+            try {
+                SceneEditQueue.View before = queue.view();
+                assertSame(before, queue.view()); // nothing changed, nothing copied
+
+                shapes.getStore().get(4500).moveBy(0, 7);
+                shapes.getStore().get(1).setLabel("renamed");
+                shapes.addShape(new CircleShape("late", 1, 2, 3, Color.BLUE));
+                SceneEditQueue.View after = queue.view();
+
+                assertEquals(5000, before.size());
+                assertEquals(0, before.getY(4500));
+                assertEquals("s1", before.getLabel(1));
+                assertThrows(IndexOutOfBoundsException.class, () -> before.getX(5000));
+                assertEquals(5001, after.size());
+                assertEquals(7, after.getY(4500));
+                assertEquals("renamed", after.getLabel(1));
+                assertEquals(Color.BLUE, after.getColor(5000));
+
+                shapes.clear();
+                shapes.addShape(new CircleShape("fresh", 9, 9, 9, Color.GREEN));
+                SceneEditQueue.View reset = queue.view();
+                assertEquals(1, reset.size());
+                assertEquals(9, reset.getRadius(0));
+                assertEquals(7, after.getY(4500));
+
+                SceneEditQueue.Batch b = queue.newBatch().move(0, 1, 0).relabel(0, "batched");
+                queue.commit(b);
+                queue.drain(Long.MAX_VALUE);
+                SceneEditQueue.View drained = queue.view();
+                assertEquals(1, drained.appliedBatches);
+                assertEquals(10, drained.getX(0));
+                assertEquals("batched", drained.getLabel(0));
+            } catch (InterruptedException e) {
+                fail(e);
+            } finally {
+                queue.stop();
+            }
+        });
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SceneFileTest {
+    @TempDir Path dir;
+
+    @Test void roundTripsShapesAndPrototypes() throws IOException {
+        Path file = dir.resolve("a.scene");
+        SceneFile.save(file, scene(50), registry("Red", "Blue"));
+
+        ShapeManager shapes = new ShapeManager(new ColumnarShapeStore());
+        PrototypeRegistry registry = new PrototypeRegistry();
+        SceneFile.load(file, shapes, registry);
+
+        assertEquals(50, shapes.size());
+        assertEquals(List.of("Red", "Blue"), new ArrayList<>(registry.keys()));
+        assertEquals(430, shapes.getStore().getX(10));
+        assertEquals("shape 7", shapes.getStore().getLabel(7));
+    }
+
+    @Test void truncatedFileLeavesSceneAndRegistryAlone() throws IOException {
+        Path file = dir.resolve("cut.scene");
+        SceneFile.save(file, scene(100), registry("Red"));
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - SceneFile.SHAPE_BYTES * 10);
+        }
+        assertLoadFailsCleanly(file);
+    }
+
+    @Test void badLabelIndexLeavesSceneAndRegistryAlone() throws IOException {
+        Path file = dir.resolve("bad.scene");
+        SceneFile.save(file, scene(100), registry("Red"));
+        // the label index of the last shape record points past the label table
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(4).putInt(0, 1_000_000), Files.size(file) - 4);
+        }
+        assertLoadFailsCleanly(file);
+    }
+
+    @Test void badHeaderOffsetsAreRejected() throws IOException {
+        Path file = dir.resolve("header.scene");
+        SceneFile.save(file, scene(5), registry("Red"));
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(8).putLong(0, -8), 24); // labels offset
+        }
+        assertLoadFailsCleanly(file);
+    }
+
+    @Test void missingFillAndLabelStayMissing() throws IOException {
+        Path file = dir.resolve("none.scene");
+        ShapeManager scene = scene(3);
+        scene.getStore().get(0).setColor(null);
+        scene.getStore().get(1).setLabel(null);
+        scene.getStore().get(2).setColor(new Color(0, true)); // transparent black is a color
+        PrototypeRegistry protos = new PrototypeRegistry();
+        protos.register("Ghost", new CirclePrototype("Ghost", 20, null));
+        SceneFile.save(file, scene, protos);
+
+        for (ShapeManager shapes : new ShapeManager[] {new ShapeManager(), new ShapeManager(new ColumnarShapeStore())}) {
+            PrototypeRegistry registry = new PrototypeRegistry();
+            SceneFile.load(file, shapes, registry);
+            ShapeStore store = shapes.getStore();
+            assertNull(store.getColor(0));
+            assertEquals("shape 0", store.getLabel(0));
+            assertNull(store.getLabel(1));
+            assertEquals(Color.BLUE, store.getColor(1));
+            assertEquals(new Color(0, true), store.getColor(2));
+            assertNull(registry.getPrototypeForEdit("Ghost").getColor());
+        }
+    }
+
+    @Test void versionOneFilesStillLoad() throws IOException {
+        Path file = dir.resolve("v1.scene");
+        SceneFile.save(file, scene(4), registry("Red"));
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(4).putInt(0, 1), 4);
+        }
+        ShapeManager shapes = new ShapeManager();
+        SceneFile.load(file, shapes, new PrototypeRegistry());
+        assertEquals("shape 3", shapes.getStore().getLabel(3));
+
+        // version 1 had no "none" index
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(4).putInt(0, SceneFile.NONE), Files.size(file) - 4);
+        }
+        assertLoadFailsCleanly(file);
+    }
+
+    private void assertLoadFailsCleanly(Path file) {
+        ShapeManager shapes = scene(3);
+        PrototypeRegistry registry = registry("Mine");
+        assertThrows(IOException.class, () -> SceneFile.load(file, shapes, registry));
+
+        assertEquals(3, shapes.size());
+        assertEquals(List.of("Mine"), new ArrayList<>(registry.keys()));
+        // the index still agrees with the store
+        for (int id = 0; id < shapes.size(); id++) {
+            CircleShape hit = shapes.pickAt(shapes.getStore().getX(id), shapes.getStore().getY(id));
+            assertNotNull(hit);
+            assertEquals(id, hit.getId());
+        }
+    }
+
+    private static ShapeManager scene(int n) {
+        ShapeManager shapes = new ShapeManager();
+        for (int i = 0; i < n; i++) shapes.addShape(new CircleShape("shape " + i, 30 + i * 40, 30, 15, i % 2 == 0 ? Color.RED : Color.BLUE));
+        return shapes;
+    }
+
+    private static PrototypeRegistry registry(String... keys) {
+        PrototypeRegistry registry = new PrototypeRegistry();
+        for (String k : keys) registry.register(k, new CirclePrototype(k, 20, Color.GREEN));
+        return registry;
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SceneJournalTest {
+    @TempDir Path dir;
+
+    @Test void restartAfterALostCheckpointKeepsLaterEdits() throws Exception {
+        session(2, 0);
+        loseNewestCheckpoint();
+
+        assertEquals(2, session(1, 2)); // restored two shapes, added a third
+        assertEquals(3, session(0, 3));
+    }
+
+    @Test void restartAfterATornLogKeepsLaterEdits() throws Exception {
+        session(2, 0);
+        loseNewestCheckpoint();
+        // a frame header promising more bytes than the crash left behind
+        Files.write(log(), new byte[] {0, 0, 0, 100, 1, 2, 3, 4, 5, 6}, StandardOpenOption.APPEND);
+
+        assertEquals(2, session(1, 2));
+        assertEquals(3, session(0, 3));
+    }
+
+    @Test void movesAreNotReplayedTwice() throws Exception {
+        session(1, 0);
+        loseNewestCheckpoint();
+
+        ShapeManager shapes = new ShapeManager();
+        try (SceneJournal journal = SceneJournal.open(dir, shapes, new PrototypeRegistry(), 1, 1L << 30)) {
+            journal.attach();
+            shapes.getStore().get(0).moveBy(5, 0);
+        }
+        ShapeManager restored = new ShapeManager();
+        SceneJournal.open(dir, restored, new PrototypeRegistry(), 1, 1L << 30).close();
+        assertEquals(shapes.getStore().getX(0), restored.getStore().getX(0));
+    }
+
+    /**
+     * Restarts on dir, checks the restored shape count, adds shapes and shuts down
+     * cleanly; returns how many shapes were restored.
+     */
+    private int session(int add, int expectRestored) throws Exception {
+        ShapeManager shapes = new ShapeManager();
+        int restored;
+        try (SceneJournal journal = SceneJournal.open(dir, shapes, new PrototypeRegistry(), 1, 1L << 30)) {
+            restored = shapes.size();
+            assertEquals(expectRestored, restored);
+            journal.attach();
+            for (int i = 0; i < add; i++) shapes.addShape(new CircleShape("s" + (restored + i), 20 + 30 * (restored + i), 20, 10, Color.RED));
+        }
+        return restored;
+    }
+
+    /** Leaves the files as a crash would have before the latest checkpoint was written. */
+    private void loseNewestCheckpoint() throws IOException {
+        Path checkpoint = newest("checkpoint-", ".scene");
+        int g = generation(checkpoint);
+        // the edits of generation g stay in its log; pretend its checkpoint is an older one
+        Files.move(checkpoint, dir.resolve("checkpoint-" + (g - 1) + ".scene"));
+    }
+
+    private Path log() throws IOException { return newest("journal-", ".wal"); }
+
+    private Path newest(String prefix, String suffix) throws IOException {
+        Path best = null;
+        try (var files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                String n = f.getFileName().toString();
+                if (n.startsWith(prefix) && n.endsWith(suffix) && (best == null || generation(f) > generation(best))) best = f;
+            }
+        }
+        assertNotNull(best, prefix + "* missing");
+        return best;
+    }
+
+    private static int generation(Path f) {
+        String n = f.getFileName().toString();
+        return Integer.parseInt(n.substring(n.indexOf('-') + 1, n.indexOf('.')));
+    }
+}
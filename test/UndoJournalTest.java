@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UndoJournalTest {
+    @Test void aStepLargerThanTheCapacityUndoesWhole() {
+        ShapeManager shapes = scene(150);
+        UndoJournal undo = new UndoJournal(shapes, 16, 250, 1 << 20);
+
+        int[] xs = new int[150], ys = new int[150];
+        for (int id = 0; id < 150; id++) {
+            xs[id] = shapes.getStore().getX(id) + 7;
+            ys[id] = shapes.getStore().getY(id) - 3;
+        }
+        shapes.beginGesture();
+        shapes.moveTo(xs, ys);
+        shapes.endGesture();
+        shapes.getStore().get(0).setRadius(40); // a later, ordinary step
+
+        assertTrue(undo.undo());
+        assertEquals(15, shapes.getStore().getRadius(0));
+        assertTrue(undo.undo());
+        for (int id = 0; id < 150; id++) {
+            assertEquals(10 + id * 5, shapes.getStore().getX(id), "x of " + id);
+            assertEquals(30, shapes.getStore().getY(id), "y of " + id);
+        }
+        assertFalse(undo.undo()); // the adds before it fell out of the ring
+
+        assertTrue(undo.redo());
+        for (int id = 0; id < 150; id++) assertEquals(17 + id * 5, shapes.getStore().getX(id), "x of " + id);
+        assertTrue(undo.redo());
+        assertEquals(40, shapes.getStore().getRadius(0));
+    }
+
+    @Test void undoingManyStepsThroughASnapshotMatchesSingleSteps() {
+        ShapeManager viaSnapshot = scene(4), stepwise = scene(4);
+        UndoJournal jump = new UndoJournal(viaSnapshot, 1000, 5, 1 << 20);
+        UndoJournal single = new UndoJournal(stepwise, 1000, 5, 1 << 20);
+        for (ShapeManager shapes : new ShapeManager[] {viaSnapshot, stepwise}) {
+            for (int i = 0; i < 23; i++) shapes.getStore().get(i % 4).moveBy(i, 1);
+            shapes.addShape(new CircleShape("late", 300, 300, 20, Color.BLUE));
+        }
+        assertTrue(jump.snapshotCount() > 0);
+        assertEquals(24, jump.undoableSteps());
+
+        assertEquals(19, jump.undo(19)); // back to step 5, which has a snapshot
+        for (int i = 0; i < 19; i++) assertTrue(single.undo());
+
+        assertEquals(stepwise.size(), viaSnapshot.size());
+        for (int id = 0; id < stepwise.size(); id++) {
+            assertEquals(stepwise.getStore().getX(id), viaSnapshot.getStore().getX(id), "x of " + id);
+            assertEquals(stepwise.getStore().getY(id), viaSnapshot.getStore().getY(id), "y of " + id);
+        }
+        // what was undone can still be redone
+        for (int i = 0; i < 19; i++) assertTrue(jump.redo());
+        assertEquals(5, viaSnapshot.size());
+        assertFalse(jump.redo());
+    }
+
+    private static ShapeManager scene(int n) {
+        ShapeManager shapes = new ShapeManager();
+        for (int i = 0; i < n; i++) shapes.addShape(new CircleShape("shape " + i, 10 + i * 5, 30, 15, Color.RED));
+        return shapes;
+    }
+}
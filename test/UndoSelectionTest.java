@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UndoSelectionTest {
+    @Test void undoingAGroupMoveKeepsTheSelection() {
+        ShapeManager shapes = scene(5);
+        UndoJournal undo = new UndoJournal(shapes, 1000, 250, 1 << 20);
+        shapes.select(new int[] {1, 2, 4}, false);
+
+        shapes.beginGesture();
+        shapes.moveSelection(10, 0);
+        shapes.moveSelection(5, 5);
+        shapes.endGesture();
+
+        assertTrue(undo.undo());
+        shapes.refreshSelection();
+        assertArrayEquals(new int[] {1, 2, 4}, shapes.selectedIds());
+        assertEquals(4, shapes.getSelected().getId());
+        assertEquals(30 + 40, shapes.getStore().getX(1));
+
+        assertTrue(undo.redo());
+        shapes.refreshSelection();
+        assertArrayEquals(new int[] {1, 2, 4}, shapes.selectedIds());
+        assertEquals(30 + 40 + 15, shapes.getStore().getX(1));
+    }
+
+    @Test void undoingAClonePrunesOnlyTheRemovedIds() {
+        ShapeManager shapes = scene(3);
+        UndoJournal undo = new UndoJournal(shapes, 1000, 250, 1 << 20);
+        shapes.addShape(new CircleShape("clone", 200, 200, 15, Color.GREEN));
+        shapes.select(new int[] {0, 3}, false);
+
+        assertTrue(undo.undo());
+        shapes.refreshSelection();
+        assertArrayEquals(new int[] {0}, shapes.selectedIds());
+        assertNull(shapes.getSelected()); // the primary was the clone
+    }
+
+    private static ShapeManager scene(int n) {
+        ShapeManager shapes = new ShapeManager();
+        for (int i = 0; i < n; i++) shapes.addShape(new CircleShape("shape " + i, 30 + i * 40, 30, 15, Color.RED));
+        return shapes;
+    }
+}